@@ -0,0 +1,719 @@
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+
+/**
+ * public class AVLNavigableMap
+ * <p>
+ * A NavigableMap&lt;Integer, Boolean&gt; backed by an AVLTree, to replace TreeMap&lt;Integer, Boolean&gt;.
+ * Every method that takes or returns keys also has an overload on int keys, so converted call sites don't box:
+ * get(int), put(int, boolean), ceilingIntKey(int), subMap(int, boolean, int, boolean), intKeyIterator() and so on.
+ * the int overloads that look for a key return -1 when there is none, where the boxed ones return null.
+ * <p>
+ * Sub, head, tail and descending maps are views of the same tree: they hold only their key bounds and
+ * direction, so changes through any view are seen by all of them. Iterators walk the tree's next/prev threads.
+ * <p>
+ * Keys must be non-negative, as in AVLTree. Iterators are not fail-fast: the map must not be changed while
+ * one is in use, except through the iterator's own remove.
+ */
+public class AVLNavigableMap extends AbstractMap<Integer, Boolean> implements NavigableMap<Integer, Boolean> {
+    private final AVLTree tree;
+    /**
+     * the smallest and largest keys of the view, inclusive. Long.MIN_VALUE and Long.MAX_VALUE when unbounded
+     */
+    private final long lo;
+    private final long hi;
+    private final boolean descending;
+
+    /**
+     * constructs an empty map over a new tree
+     * time complexity: O(1)
+     */
+    public AVLNavigableMap() {
+        this(new AVLTree());
+    }
+
+    /**
+     * constructs a map over tree. changes through the map and the tree are seen by both
+     * time complexity: O(1)
+     */
+    public AVLNavigableMap(AVLTree tree) {
+        this(tree, Long.MIN_VALUE, Long.MAX_VALUE, false);
+    }
+
+    private AVLNavigableMap(AVLTree tree, long lo, long hi, boolean descending) {
+        this.tree = tree;
+        this.lo = lo;
+        this.hi = hi;
+        this.descending = descending;
+    }
+
+    // --- bounds, in ascending key order ---
+
+    private boolean inRange(long k) {
+        return lo <= k && k <= hi;
+    }
+
+    private boolean unbounded() {
+        return lo <= 0 && hi >= Integer.MAX_VALUE;
+    }
+
+    /**
+     * the node with the smallest key >= k in the view, or null
+     */
+    private AVLTree.AVLNode ceilingIn(long k) {
+        k = Math.max(Math.max(k, lo), 0);
+        if (k > Integer.MAX_VALUE) return null;
+        AVLTree.AVLNode node = tree.ceilingNode((int) k);
+        return node != null && node.getKey() <= hi ? node : null;
+    }
+
+    /**
+     * the node with the largest key <= k in the view, or null
+     */
+    private AVLTree.AVLNode floorIn(long k) {
+        k = Math.min(Math.min(k, hi), Integer.MAX_VALUE);
+        if (k < 0) return null;
+        AVLTree.AVLNode node = tree.floorNode((int) k);
+        return node != null && node.getKey() >= lo ? node : null;
+    }
+
+    /**
+     * the number of keys in the tree that are smaller than k
+     */
+    private int countBelow(long k) {
+        if (k <= 0) return 0;
+        if (k > Integer.MAX_VALUE) return tree.size();
+        return tree.rank((int) k);
+    }
+
+    // --- navigation, in the order of the view ---
+
+    private AVLTree.AVLNode firstNode() {
+        if (unbounded()) return descending ? tree.lastNode() : tree.firstNode();
+        return descending ? floorIn(hi) : ceilingIn(lo);
+    }
+
+    private AVLTree.AVLNode lastNode() {
+        if (unbounded()) return descending ? tree.firstNode() : tree.lastNode();
+        return descending ? ceilingIn(lo) : floorIn(hi);
+    }
+
+    private AVLTree.AVLNode ceilingNode(long k) {
+        return descending ? floorIn(k) : ceilingIn(k);
+    }
+
+    private AVLTree.AVLNode floorNode(long k) {
+        return descending ? ceilingIn(k) : floorIn(k);
+    }
+
+    private AVLTree.AVLNode higherNode(long k) {
+        return descending ? floorIn(k - 1) : ceilingIn(k + 1);
+    }
+
+    private AVLTree.AVLNode lowerNode(long k) {
+        return descending ? ceilingIn(k + 1) : floorIn(k - 1);
+    }
+
+    /**
+     * the node after node in the order of the view, or null at the end of the view
+     */
+    private AVLTree.AVLNode nextNode(AVLTree.AVLNode node) {
+        AVLTree.AVLNode next = descending ? node.getPrev() : node.getNext();
+        return next != null && inRange(next.getKey()) ? next : null;
+    }
+
+    private static int keyOrAbsent(AVLTree.AVLNode node) {
+        return node == null ? -1 : node.getKey();
+    }
+
+    private static Integer keyOrNull(AVLTree.AVLNode node) {
+        return node == null ? null : node.getKey();
+    }
+
+    private Map.Entry<Integer, Boolean> snapshot(AVLTree.AVLNode node) {
+        return node == null ? null
+                : new AbstractMap.SimpleImmutableEntry<>(node.getKey(), tree.effectiveValue(node));
+    }
+
+    private static int toKey(Object key) {
+        if (key == null) throw new NullPointerException("null keys are not supported");
+        return (Integer) key;
+    }
+
+    private void checkKey(int k) {
+        if (k < 0) throw new IllegalArgumentException("keys must be non-negative: " + k);
+        if (!inRange(k)) throw new IllegalArgumentException("key out of range: " + k);
+    }
+
+    // --- int overloads ---
+
+    /**
+     * returns the info mapped to k, or null if there is none
+     * time complexity: O(log(size))
+     */
+    public Boolean get(int k) {
+        return inRange(k) ? tree.search(k) : null;
+    }
+
+    public boolean getOrDefault(int k, boolean defaultValue) {
+        Boolean value = get(k);
+        return value == null ? defaultValue : value;
+    }
+
+    public boolean containsKey(int k) {
+        return get(k) != null;
+    }
+
+    /**
+     * maps k to value and returns the previous info, or null if k was not mapped
+     * time complexity: O(log(size))
+     * @throws IllegalArgumentException if k is negative or outside the view
+     */
+    public Boolean put(int k, boolean value) {
+        checkKey(k);
+        return tree.put(k, value);
+    }
+
+    /**
+     * removes the mapping of k and returns its info, or null if k was not mapped
+     * time complexity: O(log(size))
+     */
+    public Boolean remove(int k) {
+        return inRange(k) ? tree.remove(k) : null;
+    }
+
+    /**
+     * the first key of the view
+     * @throws NoSuchElementException if the view is empty
+     */
+    public int firstIntKey() {
+        AVLTree.AVLNode node = firstNode();
+        if (node == null) throw new NoSuchElementException();
+        return node.getKey();
+    }
+
+    /**
+     * the last key of the view
+     * @throws NoSuchElementException if the view is empty
+     */
+    public int lastIntKey() {
+        AVLTree.AVLNode node = lastNode();
+        if (node == null) throw new NoSuchElementException();
+        return node.getKey();
+    }
+
+    public int ceilingIntKey(int k) {
+        return keyOrAbsent(ceilingNode(k));
+    }
+
+    public int floorIntKey(int k) {
+        return keyOrAbsent(floorNode(k));
+    }
+
+    public int higherIntKey(int k) {
+        return keyOrAbsent(higherNode(k));
+    }
+
+    public int lowerIntKey(int k) {
+        return keyOrAbsent(lowerNode(k));
+    }
+
+    /**
+     * removes the first mapping of the view and returns its key, or -1 if the view is empty
+     * time complexity: O(log(size))
+     */
+    public int pollFirstIntKey() {
+        if (unbounded()) return descending ? tree.pollLast() : tree.pollFirst();
+        return removeNode(firstNode());
+    }
+
+    /**
+     * removes the last mapping of the view and returns its key, or -1 if the view is empty
+     * time complexity: O(log(size))
+     */
+    public int pollLastIntKey() {
+        if (unbounded()) return descending ? tree.pollFirst() : tree.pollLast();
+        return removeNode(lastNode());
+    }
+
+    private int removeNode(AVLTree.AVLNode node) {
+        if (node == null) return -1;
+        int key = node.getKey();
+        tree.delete(key);
+        return key;
+    }
+
+    /**
+     * the keys of the view in its order, without boxing
+     */
+    public PrimitiveIterator.OfInt intKeyIterator() {
+        return new KeyIterator(firstNode());
+    }
+
+    public AVLNavigableMap subMap(int fromKey, boolean fromInclusive, int toKey, boolean toInclusive) {
+        if (descending ? fromKey < toKey : fromKey > toKey) throw new IllegalArgumentException("fromKey > toKey");
+        if (descending) return bounded(toKey + (toInclusive ? 0L : 1L), fromKey - (fromInclusive ? 0L : 1L));
+        return bounded(fromKey + (fromInclusive ? 0L : 1L), toKey - (toInclusive ? 0L : 1L));
+    }
+
+    public AVLNavigableMap headMap(int toKey, boolean inclusive) {
+        if (descending) return bounded(toKey + (inclusive ? 0L : 1L), hi);
+        return bounded(lo, toKey - (inclusive ? 0L : 1L));
+    }
+
+    public AVLNavigableMap tailMap(int fromKey, boolean inclusive) {
+        if (descending) return bounded(lo, fromKey - (inclusive ? 0L : 1L));
+        return bounded(fromKey + (inclusive ? 0L : 1L), hi);
+    }
+
+    /**
+     * a view over the keys in [from, to] in the same direction, whose bounds must lie inside this view.
+     * a bound that isn't this view's own comes from an int key, so adding or subtracting one can't overflow
+     */
+    private AVLNavigableMap bounded(long from, long to) {
+        boolean fromInside = from == lo || (from >= lo && from - 1 <= hi);
+        boolean toInside = to == hi || (to <= hi && to + 1 >= lo);
+        if (!fromInside || !toInside) throw new IllegalArgumentException("key out of range");
+        return new AVLNavigableMap(tree, from, to, descending);
+    }
+
+    // --- NavigableMap ---
+
+    @Override
+    public int size() {
+        if (unbounded()) return tree.size();
+        return Math.max(0, countBelow(Math.min(hi, Integer.MAX_VALUE) + 1) - countBelow(lo));
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return firstNode() == null;
+    }
+
+    @Override
+    public Boolean get(Object key) {
+        return get(toKey(key));
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return containsKey(toKey(key));
+    }
+
+    @Override
+    public Boolean put(Integer key, Boolean value) {
+        if (key == null || value == null) throw new NullPointerException("null keys and values are not supported");
+        return put(key.intValue(), value.booleanValue());
+    }
+
+    @Override
+    public Boolean remove(Object key) {
+        return remove(toKey(key));
+    }
+
+    @Override
+    public void clear() {
+        if (unbounded()) {
+            tree.deleteRange(0, Integer.MAX_VALUE);
+            return;
+        }
+        long from = Math.max(lo, 0);
+        long to = Math.min(hi, Integer.MAX_VALUE);
+        if (from <= to) tree.deleteRange((int) from, (int) to);
+    }
+
+    @Override
+    public Comparator<? super Integer> comparator() {
+        return descending ? Collections.reverseOrder() : null;
+    }
+
+    @Override
+    public Integer firstKey() {
+        return firstIntKey();
+    }
+
+    @Override
+    public Integer lastKey() {
+        return lastIntKey();
+    }
+
+    @Override
+    public Map.Entry<Integer, Boolean> firstEntry() {
+        return snapshot(firstNode());
+    }
+
+    @Override
+    public Map.Entry<Integer, Boolean> lastEntry() {
+        return snapshot(lastNode());
+    }
+
+    @Override
+    public Map.Entry<Integer, Boolean> pollFirstEntry() {
+        Map.Entry<Integer, Boolean> entry = firstEntry();
+        if (entry == null) return null;
+        if (!unbounded()) {
+            tree.delete(entry.getKey());
+        } else if (descending) {
+            tree.pollLast();
+        } else {
+            tree.pollFirst();
+        }
+        return entry;
+    }
+
+    @Override
+    public Map.Entry<Integer, Boolean> pollLastEntry() {
+        Map.Entry<Integer, Boolean> entry = lastEntry();
+        if (entry == null) return null;
+        if (!unbounded()) {
+            tree.delete(entry.getKey());
+        } else if (descending) {
+            tree.pollFirst();
+        } else {
+            tree.pollLast();
+        }
+        return entry;
+    }
+
+    @Override
+    public Map.Entry<Integer, Boolean> lowerEntry(Integer key) {
+        return snapshot(lowerNode(toKey(key)));
+    }
+
+    @Override
+    public Integer lowerKey(Integer key) {
+        return keyOrNull(lowerNode(toKey(key)));
+    }
+
+    @Override
+    public Map.Entry<Integer, Boolean> floorEntry(Integer key) {
+        return snapshot(floorNode(toKey(key)));
+    }
+
+    @Override
+    public Integer floorKey(Integer key) {
+        return keyOrNull(floorNode(toKey(key)));
+    }
+
+    @Override
+    public Map.Entry<Integer, Boolean> ceilingEntry(Integer key) {
+        return snapshot(ceilingNode(toKey(key)));
+    }
+
+    @Override
+    public Integer ceilingKey(Integer key) {
+        return keyOrNull(ceilingNode(toKey(key)));
+    }
+
+    @Override
+    public Map.Entry<Integer, Boolean> higherEntry(Integer key) {
+        return snapshot(higherNode(toKey(key)));
+    }
+
+    @Override
+    public Integer higherKey(Integer key) {
+        return keyOrNull(higherNode(toKey(key)));
+    }
+
+    @Override
+    public AVLNavigableMap descendingMap() {
+        return new AVLNavigableMap(tree, lo, hi, !descending);
+    }
+
+    @Override
+    public NavigableSet<Integer> navigableKeySet() {
+        return new KeySet(this);
+    }
+
+    @Override
+    public NavigableSet<Integer> keySet() {
+        return navigableKeySet();
+    }
+
+    @Override
+    public NavigableSet<Integer> descendingKeySet() {
+        return descendingMap().navigableKeySet();
+    }
+
+    @Override
+    public AVLNavigableMap subMap(Integer fromKey, boolean fromInclusive, Integer toKey, boolean toInclusive) {
+        return subMap(toKey(fromKey), fromInclusive, toKey(toKey), toInclusive);
+    }
+
+    @Override
+    public AVLNavigableMap headMap(Integer toKey, boolean inclusive) {
+        return headMap(toKey(toKey), inclusive);
+    }
+
+    @Override
+    public AVLNavigableMap tailMap(Integer fromKey, boolean inclusive) {
+        return tailMap(toKey(fromKey), inclusive);
+    }
+
+    @Override
+    public SortedMap<Integer, Boolean> subMap(Integer fromKey, Integer toKey) {
+        return subMap(fromKey, true, toKey, false);
+    }
+
+    @Override
+    public SortedMap<Integer, Boolean> headMap(Integer toKey) {
+        return headMap(toKey, false);
+    }
+
+    @Override
+    public SortedMap<Integer, Boolean> tailMap(Integer fromKey) {
+        return tailMap(fromKey, true);
+    }
+
+    @Override
+    public Set<Map.Entry<Integer, Boolean>> entrySet() {
+        return new EntrySet();
+    }
+
+    // --- iterators and views ---
+
+    /**
+     * walks the view from first over the threads. remove deletes the last returned key from the tree, which
+     * leaves the other nodes, and so the next one, in place.
+     */
+    private abstract class NodeIterator {
+        private AVLTree.AVLNode next;
+        private AVLTree.AVLNode lastReturned;
+
+        NodeIterator(AVLTree.AVLNode first) {
+            tree.applyPendingTags(); // so node values can be read directly
+            this.next = first;
+        }
+
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        AVLTree.AVLNode nextNode() {
+            if (next == null) throw new NoSuchElementException();
+            lastReturned = next;
+            next = AVLNavigableMap.this.nextNode(next);
+            return lastReturned;
+        }
+
+        public void remove() {
+            if (lastReturned == null) throw new IllegalStateException();
+            tree.delete(lastReturned.getKey());
+            lastReturned = null;
+        }
+    }
+
+    private final class KeyIterator extends NodeIterator implements PrimitiveIterator.OfInt {
+        KeyIterator(AVLTree.AVLNode first) {
+            super(first);
+        }
+
+        @Override
+        public int nextInt() {
+            return nextNode().getKey();
+        }
+    }
+
+    private final class EntryIterator extends NodeIterator implements Iterator<Map.Entry<Integer, Boolean>> {
+        EntryIterator(AVLTree.AVLNode first) {
+            super(first);
+        }
+
+        @Override
+        public Map.Entry<Integer, Boolean> next() {
+            AVLTree.AVLNode node = nextNode();
+            return new LiveEntry(node.getKey(), node.getValue());
+        }
+    }
+
+    /**
+     * an entry of the entry set, setValue writes through to the tree
+     */
+    private final class LiveEntry extends AbstractMap.SimpleEntry<Integer, Boolean> {
+        private static final long serialVersionUID = 1L;
+
+        LiveEntry(int key, boolean value) {
+            super(key, value);
+        }
+
+        @Override
+        public Boolean setValue(Boolean value) {
+            if (value == null) throw new NullPointerException("null values are not supported");
+            if (tree.replace(getKey(), value) == null) throw new IllegalStateException("the entry was removed");
+            return super.setValue(value);
+        }
+    }
+
+    private final class EntrySet extends AbstractSet<Map.Entry<Integer, Boolean>> {
+        @Override
+        public Iterator<Map.Entry<Integer, Boolean>> iterator() {
+            return new EntryIterator(firstNode());
+        }
+
+        @Override
+        public int size() {
+            return AVLNavigableMap.this.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof Map.Entry)) return false;
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+            if (!(entry.getKey() instanceof Integer)) return false;
+            Boolean value = get((int) (Integer) entry.getKey());
+            return value != null && value.equals(entry.getValue());
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if (!contains(o)) return false;
+            AVLNavigableMap.this.remove(((Map.Entry<?, ?>) o).getKey());
+            return true;
+        }
+
+        @Override
+        public void clear() {
+            AVLNavigableMap.this.clear();
+        }
+    }
+
+    /**
+     * the keys of a view, as a NavigableSet backed by it
+     */
+    private static final class KeySet extends AbstractSet<Integer> implements NavigableSet<Integer> {
+        private final AVLNavigableMap map;
+
+        KeySet(AVLNavigableMap map) {
+            this.map = map;
+        }
+
+        @Override
+        public PrimitiveIterator.OfInt iterator() {
+            return map.intKeyIterator();
+        }
+
+        @Override
+        public Iterator<Integer> descendingIterator() {
+            return map.descendingMap().intKeyIterator();
+        }
+
+        @Override
+        public int size() {
+            return map.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return map.isEmpty();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return o instanceof Integer && map.containsKey((int) (Integer) o);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            return o instanceof Integer && map.remove((int) (Integer) o) != null;
+        }
+
+        @Override
+        public void clear() {
+            map.clear();
+        }
+
+        @Override
+        public Comparator<? super Integer> comparator() {
+            return map.comparator();
+        }
+
+        @Override
+        public Integer first() {
+            return map.firstKey();
+        }
+
+        @Override
+        public Integer last() {
+            return map.lastKey();
+        }
+
+        @Override
+        public Integer lower(Integer e) {
+            return map.lowerKey(e);
+        }
+
+        @Override
+        public Integer floor(Integer e) {
+            return map.floorKey(e);
+        }
+
+        @Override
+        public Integer ceiling(Integer e) {
+            return map.ceilingKey(e);
+        }
+
+        @Override
+        public Integer higher(Integer e) {
+            return map.higherKey(e);
+        }
+
+        @Override
+        public Integer pollFirst() {
+            int key = map.pollFirstIntKey();
+            return key < 0 ? null : key;
+        }
+
+        @Override
+        public Integer pollLast() {
+            int key = map.pollLastIntKey();
+            return key < 0 ? null : key;
+        }
+
+        @Override
+        public NavigableSet<Integer> descendingSet() {
+            return map.descendingMap().navigableKeySet();
+        }
+
+        @Override
+        public NavigableSet<Integer> subSet(Integer fromElement, boolean fromInclusive, Integer toElement,
+                                            boolean toInclusive) {
+            return map.subMap(fromElement, fromInclusive, toElement, toInclusive).navigableKeySet();
+        }
+
+        @Override
+        public NavigableSet<Integer> headSet(Integer toElement, boolean inclusive) {
+            return map.headMap(toElement, inclusive).navigableKeySet();
+        }
+
+        @Override
+        public NavigableSet<Integer> tailSet(Integer fromElement, boolean inclusive) {
+            return map.tailMap(fromElement, inclusive).navigableKeySet();
+        }
+
+        @Override
+        public SortedSet<Integer> subSet(Integer fromElement, Integer toElement) {
+            return subSet(fromElement, true, toElement, false);
+        }
+
+        @Override
+        public SortedSet<Integer> headSet(Integer toElement) {
+            return headSet(toElement, false);
+        }
+
+        @Override
+        public SortedSet<Integer> tailSet(Integer fromElement) {
+            return tailSet(fromElement, true);
+        }
+    }
+}
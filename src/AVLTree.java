@@ -1,3 +1,17 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.ObjIntConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
 /**
  * public class AVLNode
  * <p>
@@ -8,12 +22,16 @@
  * <p>
  * However, you are allowed (and required) to implement the given functions, and can add functions of your own
  * according to your needs.
+ * <p>
+ * pollFirst and pollLast let the tree serve as a priority queue. They take O(log(size)) rather than a heap's
+ * O(1) amortized, because every node keeps the count and xor of its subtree and all of them change on the way
+ * to the root.
  * @author Yuval Nosovitsky
  * Id: 322450883
  * username: nosovitsky
  */
 
-public class AVLTree implements IBSTree {
+public class AVLTree implements PrefixXorTree {
     /**
      * The root of the tree
      */
@@ -30,6 +48,87 @@ public class AVLTree implements IBSTree {
      * the amount of nodes in the tree
      */
     private int    size;
+    /**
+     * free list of deleted nodes waiting to be reused by insert, linked through their next field
+     */
+    private AVLNode pool;
+    /**
+     * the amount of nodes in the pool
+     */
+    private int poolSize;
+    /**
+     * the maximal amount of nodes the pool may hold, 0 disables recycling
+     */
+    private int poolCapacity;
+    /**
+     * the amount of virtual children the nodes in the pool still hold
+     */
+    private int poolVirtualNodes;
+    /**
+     * below this size the parallel array exports and bulk builds run on the calling thread
+     */
+    private static final int PARALLEL_THRESHOLD = 1 << 13;
+    /**
+     * the shallow sizes of the tree and of a node, for heapFootprint
+     */
+    private static final long TREE_BYTES = HeapFootprint.shallowBytes(AVLTree.class);
+    private static final long NODE_BYTES = HeapFootprint.shallowBytes(AVLNode.class);
+    /**
+     * the size of an item written by exportEntries: an int key and a byte of info
+     */
+    public static final int ENTRY_BYTES = 5;
+    /**
+     * the answer searchAll gives for a key that is not in the tree
+     */
+    public static final byte ABSENT = -1;
+    /**
+     * direct-mapped search cache: every slot packs the key it holds into its high 32 bits and the cached answer
+     * (one of the CACHE_ constants) into its low byte, so a slot is read and written as one value.
+     * null while the cache is disabled
+     */
+    private long[] cacheSlots;
+    private int cacheShift;
+    private long cacheHits;
+    private long cacheMisses;
+    private static final byte CACHE_EMPTY = 0;
+    private static final byte CACHE_FALSE = 1;
+    private static final byte CACHE_TRUE = 2;
+    private static final byte CACHE_ABSENT = 3;
+    /**
+     * blocked Bloom filter over the keys: every key sets FILTER_PROBES bits in one word.
+     * deletes leave their bits behind, so the filter is rebuilt from the next-thread once too many keys were
+     * deleted or inserted since the last rebuild. null while the filter is disabled.
+     */
+    private long[] filterWords;
+    private int filterShift;
+    private int filterAdds;
+    private int filterStale;
+    private long filterSkips;
+    private static final int FILTER_PROBES = 3;
+    private static final int FILTER_BITS_PER_KEY = 10;
+    /**
+     * lazy tags of flipRange and setRange. a node's tag is still to be applied to its children's subtrees,
+     * its own value and aggregates already include it
+     */
+    private static final byte TAG_NONE = 0;
+    private static final byte TAG_FLIP = 1;
+    private static final byte TAG_SET_FALSE = 2;
+    private static final byte TAG_SET_TRUE = 3;
+    /**
+     * whether some node may hold a tag, in which case values read over the next/prev thread may be stale
+     */
+    private boolean pendingTags;
+    /**
+     * the log every successful change is recorded to, null while change capture is disabled
+     */
+    private ChangeLog changeLog;
+    /**
+     * lazy deletion: delete turns items into tombstones, which stay in the tree until a compaction rebuilds it
+     * without them. tombstones are unlinked from the next/prev threads and left out of size and of the subtree
+     * counts and xors. 0 while lazy deletion is disabled
+     */
+    private double maxTombstoneFraction;
+    private int tombstones;
 
 
     /**
@@ -40,6 +139,46 @@ public class AVLTree implements IBSTree {
         this.root = null;
         this.size = 0;
     }
+
+    /**
+     * constructs an empty tree which recycles up to nodePoolCapacity deleted nodes for later inserts,
+     * saving an allocation (and the garbage) per insert under delete/insert churn.
+     * time complexity: O(1)
+     */
+    public AVLTree(int nodePoolCapacity) {
+        this();
+        setNodePoolCapacity(nodePoolCapacity);
+    }
+
+    /**
+     * public static AVLTree fromSorted(int[] keys, boolean[] info)
+     * <p>
+     * Builds a perfectly balanced tree of the items (keys[i], info[i]) on the common ForkJoinPool, see
+     * fromSorted(int[], boolean[], ForkJoinPool).
+     * time complexity: O(size) work, O(size / parallelism + log(size)) span
+     */
+    public static AVLTree fromSorted(int[] keys, boolean[] info) {
+        return fromSorted(keys, info, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * public static AVLTree fromSorted(int[] keys, boolean[] info, ForkJoinPool pool)
+     * <p>
+     * Builds a perfectly balanced tree of the items (keys[i], info[i]) without searching or rotating. the left and
+     * right subtrees of every node above PARALLEL_THRESHOLD items are built by separate tasks of pool, each
+     * setting heights and aggregates bottom-up and linking the threads across the subtrees it joins.
+     * time complexity: O(size) work, O(size / parallelism + log(size)) span
+     * @throws IllegalArgumentException if the arrays differ in length, or the keys are negative or not strictly
+     * ascending
+     */
+    public static AVLTree fromSorted(int[] keys, boolean[] info, ForkJoinPool pool) {
+        if (keys.length != info.length) {
+            throw new IllegalArgumentException(keys.length + " keys but " + info.length + " infos");
+        }
+        AVLTree tree = new AVLTree();
+        tree.buildSorted(keys, info, pool);
+        return tree;
+    }
     /**
      * public boolean empty()
      * <p>
@@ -53,15 +192,20 @@ public class AVLTree implements IBSTree {
     /**
      * returns the info of an item with key k if it exists in the tree
      * otherwise, returns null
-     * uses regular binary search.
-     * time complexity: O(log(size))
+     * uses regular binary search, answering from the negative filter and the search cache first if they are enabled.
+     * with either of them enabled search updates their state, see enableNegativeFilter and enableSearchCache.
+     * time complexity: O(log(size)), O(1) on a cache hit or a filtered miss
      */
     public Boolean search(int k) {
+        if (filterWords != null && !mightContain(k)) return null;
+        if (cacheSlots != null) return cachedSearch(k);
         AVLNode node = root;
+        byte pending = TAG_NONE;
         while (node != null) {
             if (node.getKey() == k)
-                return node.getValue();
-            else if (node.getKey() > k)
+                return node.isRealNode() && !node.isTombstone() ? tagValue(pending, node.getValue()) : null;
+            pending = compose(node.getTag(), pending);
+            if (node.getKey() > k)
                 node = node.getLeft();
             else
                 node = node.getRight();
@@ -69,6 +213,242 @@ public class AVLTree implements IBSTree {
         return null;
     }
 
+    /**
+     * Looks k up in the search cache, falling back to the tree and caching its answer on a miss.
+     * time complexity: O(1) on a hit, O(log(size)) on a miss
+     */
+    private Boolean cachedSearch(int k) {
+        int slot = cacheSlot(k);
+        long entry = cacheSlots[slot];
+        byte answer = (byte) entry;
+        if (answer != CACHE_EMPTY && (int) (entry >>> 32) == k) {
+            ++cacheHits;
+            return answer == CACHE_ABSENT ? null : answer == CACHE_TRUE;
+        }
+        ++cacheMisses;
+        AVLNode node = root;
+        byte pending = TAG_NONE;
+        while (node != null && node.isRealNode() && node.getKey() != k) {
+            pending = compose(node.getTag(), pending);
+            node = node.getKey() > k ? node.getLeft() : node.getRight();
+        }
+        Boolean value = node == null || !node.isRealNode() || node.isTombstone() ? null : tagValue(pending, node.getValue());
+        answer = value == null ? CACHE_ABSENT : value ? CACHE_TRUE : CACHE_FALSE;
+        cacheSlots[slot] = (long) k << 32 | answer;
+        return value;
+    }
+
+    /**
+     * Enables a direct-mapped cache of the last answers search gave, with slots rounded up to a power of two.
+     * insert and delete keep it valid by dropping the one slot their key maps to.
+     * <p>
+     * search is no longer a pure read once the cache is enabled: every miss writes a slot, and every search
+     * counts a hit or a miss. searches from several threads on an otherwise unmodified tree still get correct
+     * answers, since a slot holds its key and answer in one long, which 64-bit JVMs read and write atomically
+     * (32-bit JVMs may tear it). their hit and miss counts may lose updates.
+     * time complexity: O(slots)
+     */
+    public void enableSearchCache(int slots) {
+        if (slots <= 0) throw new IllegalArgumentException("slots must be positive: " + slots);
+        int capacity = Integer.highestOneBit(Math.max(2, Math.min(slots, 1 << 30)));
+        if (capacity < slots) capacity <<= 1;
+        cacheShift = 32 - Integer.numberOfTrailingZeros(capacity);
+        cacheSlots = new long[capacity];
+        cacheHits = cacheMisses = 0;
+    }
+
+    /**
+     * Disables the search cache and drops its contents.
+     * time complexity: O(1)
+     */
+    public void disableSearchCache() {
+        cacheSlots = null;
+    }
+
+    /**
+     * Returns the number of searches answered by the cache since it was enabled.
+     * time complexity: O(1)
+     */
+    public long searchCacheHits() {
+        return cacheHits;
+    }
+
+    /**
+     * Returns the number of searches that missed the cache since it was enabled.
+     * time complexity: O(1)
+     */
+    public long searchCacheMisses() {
+        return cacheMisses;
+    }
+
+    /**
+     * Drops the cached answer for k, if there is one.
+     * time complexity: O(1)
+     */
+    private void invalidateCache(int k) {
+        if (cacheSlots == null) return;
+        int slot = cacheSlot(k);
+        if ((int) (cacheSlots[slot] >>> 32) == k) cacheSlots[slot] = CACHE_EMPTY;
+    }
+
+    /**
+     * time complexity: O(1)
+     * @return the cache slot of k
+     */
+    private int cacheSlot(int k) {
+        return (k * 0x9E3779B9) >>> cacheShift;
+    }
+
+    /**
+     * public boolean contains(int k)
+     * <p>
+     * returns true if and only if an item with key k is in the tree
+     * time complexity: O(log(size)), O(1) on a cache hit or a filtered miss
+     */
+    public boolean contains(int k) {
+        return search(k) != null;
+    }
+
+    /**
+     * Enables a blocked Bloom filter in front of search, contains and delete, which answers most lookups
+     * of absent keys without walking the tree. Costs about FILTER_BITS_PER_KEY bits per key.
+     * <p>
+     * search is no longer a pure read once the filter is enabled: every lookup it answers increments the
+     * negativeFilterSkips counter. the filter's words only change on inserts, deletes and rebuilds, so searches
+     * from several threads on an otherwise unmodified tree still get correct answers, but the count may lose
+     * updates.
+     * time complexity: O(size)
+     */
+    public void enableNegativeFilter() {
+        rebuildFilter();
+        filterSkips = 0;
+    }
+
+    /**
+     * Disables the negative filter and drops it.
+     * time complexity: O(1)
+     */
+    public void disableNegativeFilter() {
+        filterWords = null;
+    }
+
+    /**
+     * Returns the number of lookups the negative filter answered without walking the tree since it was enabled.
+     * time complexity: O(1)
+     */
+    public long negativeFilterSkips() {
+        return filterSkips;
+    }
+
+    /**
+     * Returns the size of the negative filter in bytes, 0 if it is disabled.
+     * time complexity: O(1)
+     */
+    public long negativeFilterBytes() {
+        return filterWords == null ? 0 : 8L * filterWords.length;
+    }
+
+    /**
+     * time complexity: O(1)
+     * @return false if k is definitely not in the tree
+     */
+    private boolean mightContain(int k) {
+        long hash = filterHash(k);
+        long mask = filterMask(hash);
+        if ((filterWords[(int) (hash >>> filterShift)] & mask) == mask) return true;
+        ++filterSkips;
+        return false;
+    }
+
+    /**
+     * Adds a newly inserted key to the filter, growing it once it holds more keys than it was sized for.
+     * time complexity: O(1) amortized
+     */
+    private void filterAdd(int k) {
+        if (filterWords == null) return;
+        if (++filterAdds > (filterWords.length << 6) / FILTER_BITS_PER_KEY) {
+            rebuildFilter();
+            return;
+        }
+        long hash = filterHash(k);
+        filterWords[(int) (hash >>> filterShift)] |= filterMask(hash);
+    }
+
+    /**
+     * Notes that keys were deleted, their bits stay set, and rebuilds the filter once they make up
+     * half of the keys it was built from.
+     * time complexity: O(1) amortized
+     */
+    private void filterRemoved(int count) {
+        if (filterWords == null) return;
+        filterStale += count;
+        if (filterStale > filterAdds / 2) rebuildFilter();
+    }
+
+    /**
+     * Rebuilds the filter from the keys in the tree, sized for twice as many keys.
+     * time complexity: O(size)
+     */
+    private void rebuildFilter() {
+        int words = Integer.highestOneBit(Math.max(2, (int) Math.min(1 << 30, 2L * size * FILTER_BITS_PER_KEY / 64)));
+        filterWords = new long[words << 1];
+        filterShift = 64 - Integer.numberOfTrailingZeros(filterWords.length);
+        filterAdds = 0;
+        filterStale = 0;
+        for (AVLNode node = min; node != null && filterAdds < size; node = node.getNext()) {
+            long hash = filterHash(node.getKey());
+            filterWords[(int) (hash >>> filterShift)] |= filterMask(hash);
+            ++filterAdds;
+        }
+    }
+
+    /**
+     * time complexity: O(1)
+     * @return a 64 bit mix of k, whose top bits pick the word and low bits pick the bits in it
+     */
+    private static long filterHash(int k) {
+        long hash = k * 0x9E3779B97F4A7C15L;
+        hash ^= hash >>> 32;
+        hash *= 0xBF58476D1CE4E5B9L;
+        return hash ^ (hash >>> 29);
+    }
+
+    private static long filterMask(long hash) {
+        long mask = 0;
+        for (int i = 0; i < FILTER_PROBES; ++i) mask |= 1L << (hash >>> (6 * i));
+        return mask;
+    }
+
+    /**
+     * Starts recording every successful insert, delete, replace and range operation to a new log holding the
+     * last capacity changes, and returns it. followers read it through their own ChangeLog.Cursor.
+     * time complexity: O(capacity)
+     */
+    public ChangeLog enableChangeLog(int capacity) {
+        changeLog = new ChangeLog(capacity);
+        return changeLog;
+    }
+
+    /**
+     * Stops recording changes. the log keeps the changes recorded so far.
+     * time complexity: O(1)
+     */
+    public void disableChangeLog() {
+        changeLog = null;
+    }
+
+    /**
+     * Returns the log changes are recorded to, or null if change capture is disabled.
+     * time complexity: O(1)
+     */
+    public ChangeLog changeLog() {
+        return changeLog;
+    }
+
+    private void logChange(byte op, int key, int hi) {
+        if (changeLog != null) changeLog.record(op, key, hi);
+    }
+
     /**
      * public int insert(int k, boolean i)
      * <p>
@@ -82,29 +462,45 @@ public class AVLTree implements IBSTree {
      */
     public int insert(int k, boolean i) {
         if (empty()) {
-            max = min = root = new AVLNode(k, i);
+            max = min = root = newNode(k, i);
             ++size;
+            invalidateCache(k);
+            filterAdd(k);
+            logChange(i ? ChangeLog.INSERT_TRUE : ChangeLog.INSERT_FALSE, k, k);
             return 1;
         }
-        AVLNode potentialPlace = root;
-        while (potentialPlace.isRealNode()) {
-            if (potentialPlace.getKey() == k) return -1;
-            if (potentialPlace.getKey() < k) {
-                potentialPlace = potentialPlace.getRight();
-            } else
-                potentialPlace = potentialPlace.getLeft();
-        }
+        AVLNode potentialPlace = descend(k);
+        if (potentialPlace.isRealNode()) return potentialPlace.isTombstone() ? revive(potentialPlace, i) : -1;
+        return insertAt(potentialPlace, k, i);
+    }
+
+    /**
+     * Puts a new item with key k and info i in place of the virtual leaf potentialPlace, found by descend(k),
+     * and rebalances.
+     * time complexity: O(log(size))
+     * @return the number of nodes which required rebalancing operations, as in insert
+     */
+    private int insertAt(AVLNode potentialPlace, int k, boolean i) {
         AVLNode parent = potentialPlace.getParent();
-        AVLNode node = new AVLNode(k, i);
+        // with tombstones around, the neighbours in the tree may not be on the threads
+        AVLNode pred = tombstones > 0 ? lowerLive(k) : null;
+        AVLNode node = newNode(k, i);
         node.setParent(parent);
         if (parent.getKey() < k) {
             parent.setRight(node);
         } else {
             parent.setLeft(node);
         }
-        setNextPrevInsert(node);
-        updateMinMaxInsert(node);
+        if (tombstones > 0) {
+            linkAfter(node, pred);
+        } else {
+            setNextPrevInsert(node);
+            updateMinMaxInsert(node);
+        }
         ++size;
+        invalidateCache(k);
+        filterAdd(k);
+        logChange(i ? ChangeLog.INSERT_TRUE : ChangeLog.INSERT_FALSE, k, k);
 
         int totalBalancing = 1;
         while (parent != null) {
@@ -125,6 +521,45 @@ public class AVLTree implements IBSTree {
 
     }
 
+    /**
+     * public Boolean put(int k, boolean i)
+     * <p>
+     * Sets the info of the item with key k to i, inserting the item if k is not in the tree.
+     * returns the previous info, or null if k was not in the tree. takes one descent from the root, where insert
+     * followed by replace takes two.
+     * time complexity: O(log(size))
+     */
+    public Boolean put(int k, boolean i) {
+        if (empty()) {
+            insert(k, i);
+            return null;
+        }
+        AVLNode node = descend(k);
+        if (!node.isRealNode()) {
+            insertAt(node, k, i);
+        } else if (node.isTombstone()) {
+            revive(node, i);
+        } else {
+            return setValue(node, i);
+        }
+        return null;
+    }
+
+    /**
+     * Walks from the root towards k, pushing the tags of the nodes it leaves down to their children.
+     * the tree must not be empty.
+     * time complexity: O(log(size))
+     * @return the node with key k, which may be a tombstone, or the virtual leaf where k would be inserted
+     */
+    private AVLNode descend(int k) {
+        AVLNode node = root;
+        while (node.isRealNode() && node.getKey() != k) {
+            pushDown(node);
+            node = node.getKey() > k ? node.getLeft() : node.getRight();
+        }
+        return node;
+    }
+
     /**
      * updates the xorOfChildren field in all the nodes in the path from node to the root.
      * time complexity: O(log(size))
@@ -207,6 +642,8 @@ public class AVLTree implements IBSTree {
      * @param node
      */
     private void rotate(Direction dir, AVLNode node) {
+        pushDown(node);
+        pushDown(node.getChild(dir.opposite()));
         AVLNode parent = node.getParent();
         Direction dirOfNode = node.kindOfChild();
         node.setParent(node.getChild(dir.opposite()));
@@ -227,12 +664,14 @@ public class AVLTree implements IBSTree {
 
 
     /**
-     * Updates the xorOfChildren field
+     * Updates the xorOfChildren and the subtree size fields. node must not hold a tag.
      * time complexity: O(1)
      * @param node
      */
     private void updateXor(AVLNode node) {
-        node.setXorOfChildren(node.getValue() ^ node.getLeft().getXorOfChildren() ^ node.getRight().getXorOfChildren());
+        boolean live = !node.isTombstone();
+        node.setXorOfChildren((live && node.getValue()) ^ node.getLeft().getXorOfChildren() ^ node.getRight().getXorOfChildren());
+        node.setCount((live ? 1 : 0) + node.getLeft().getCount() + node.getRight().getCount());
     }
 
     /**
@@ -253,16 +692,60 @@ public class AVLTree implements IBSTree {
      * deletes an item with key k from the binary tree, if it is there;
      * the tree must remain valid (keep its invariants).
      * returns the number of nodes which required rebalancing operations (i.e. demotions or rotations).
+     * This always includes the deleted node, so a successful delete returns at least 1.
      * returns -1 if an item with key k was not found in the tree.
+     * with lazy delete enabled (see enableLazyDelete) the item only becomes a tombstone and nothing is rebalanced,
+     * so a successful delete returns 1.
+     * note that this changed for a root with fewer than two children, e.g. the only item of the tree: deleting it
+     * used to return -1 although the item was removed, which callers could not tell from an absent key.
      *
      * Algorithm is as shown in class.
      * time complexity: O(log(size))
      */
     public int delete(int k) {
+        if (filterWords != null && !mightContain(k)) return -1;
+        if (maxTombstoneFraction > 0) return markDeleted(k);
+
+        if (empty()) return -1;
+        AVLNode node = descend(k);
+        if (!node.isRealNode()) return -1;
+        pushDown(node);
+        if (node.isTombstone()) return -1;
+        boolean value = node.getValue();
+        AVLNode parent = unlink(node);
+        logChange(value ? ChangeLog.DELETE_TRUE : ChangeLog.DELETE_FALSE, k, k);
+        return rebalanceDeleted(parent);
+    }
 
-        AVLNode parent = deleteBST(k);
-        if (parent == null) return -1;
+    /**
+     * public Boolean remove(int k)
+     * <p>
+     * deletes the item with key k, if it is there, as delete does, and returns its info, or null if k was not in
+     * the tree. takes one descent from the root, where search followed by delete takes two.
+     * time complexity: O(log(size))
+     */
+    public Boolean remove(int k) {
+        if (empty() || (filterWords != null && !mightContain(k))) return null;
+        AVLNode node = descend(k);
+        if (!node.isRealNode() || node.isTombstone()) return null;
+        pushDown(node);
+        boolean previous = node.getValue();
+        if (maxTombstoneFraction > 0) {
+            markDeleted(node);
+        } else {
+            AVLNode parent = unlink(node);
+            logChange(previous ? ChangeLog.DELETE_TRUE : ChangeLog.DELETE_FALSE, k, k);
+            rebalanceDeleted(parent);
+        }
+        return previous;
+    }
 
+    /**
+     * Fixes heights, xors and balance from parent, the parent of an unlinked node, up to the root.
+     * time complexity: O(log(size))
+     * @return the number of nodes which required rebalancing operations, counting the unlinked node
+     */
+    private int rebalanceDeleted(AVLNode parent) {
         int totalBalancing = 1;
         while (parent != null) {
             if (!updateHeight(parent) && Math.abs(parent.balanceFactor()) < 2) {
@@ -285,80 +768,705 @@ public class AVLTree implements IBSTree {
 
 
     /**
-     * deletes the node with key k as if it was a regular Binary Searching Tree.
-     * algorithm is as shown in class.
-     * time complexity: O(log(size))
-     * @param k
-     * @return The node that one should start vertical updating of heights and rotations with
+     * public void enableLazyDelete(double maxTombstoneFraction)
+     * <p>
+     * Makes delete lazy: it marks the item as a tombstone and fixes the counts and xors above it, without
+     * restructuring or rebalancing the tree. tombstones are left out of search, size, the threads (and so of
+     * every iteration, stream and export), rank and prefixXor. inserting a tombstoned key revives its node.
+     * once tombstones make up more than maxTombstoneFraction of the nodes, the tree is compacted, so every
+     * lazy delete costs amortized O(log(size) + 1 / maxTombstoneFraction).
+     * deleteRange, pollFirst and pollLast still remove their items right away.
+     * time complexity: O(1)
      */
-    public AVLNode deleteBST(int k) {
-        if (empty()) return null ;
-        AVLNode node = root;
-        while (node.getKey() != k) {
-            if (!node.isRealNode()) return null;
-            if (node.getKey() < k) {
-                node = node.getRight();
-            } else
-                node = node.getLeft();
-        }
-        AVLNode parent = node.getParent();
-        setNextPrevDelete(node);
-        updateMinMaxDelete(node);
-        --size;
-        if (node.getRight().isRealNode()) {
-            if (node.getLeft().isRealNode()) {
-                return deleteTwoChidren(node);
-            } else {
-
-                node.getRight().setParent(parent);
-                if (parent != null) parent.setChild(node.kindOfChild(), node.getRight());
-                else root = node.getRight();
-            }
-        } else {
-            node.getLeft().setParent(parent);
-            if (parent != null) parent.setChild(node.kindOfChild(), node.getLeft());
-            else root = node.getLeft();
+    public void enableLazyDelete(double maxTombstoneFraction) {
+        if (!(maxTombstoneFraction > 0 && maxTombstoneFraction < 1)) {
+            throw new IllegalArgumentException("maxTombstoneFraction must be in (0, 1): " + maxTombstoneFraction);
         }
-        return parent;
+        this.maxTombstoneFraction = maxTombstoneFraction;
     }
 
-
     /**
-     * Handles the deletion of node in the case that node has two children
-     * time complexity: O(1)
-     * @param node
-     * @return the parent of node's former successor
+     * public void disableLazyDelete()
+     * <p>
+     * Compacts the tree and makes delete remove items right away again.
+     * time complexity: O(size + tombstones)
      */
-    private AVLNode deleteTwoChidren(AVLNode node) {
-        AVLNode succ = node.getNext();
-        AVLNode succParent = succ.getParent();
-        if (succParent != node) {
-            if (succParent != null) {
-                succParent.setLeft(succ.getRight());
-                succ.getRight().setParent(succParent);
-            } else {
-                root = succ.getLeft();
-                root.setParent(null);
-            }
-            succ.setRight(node.getRight());
-            node.getRight().setParent(succ);
-        }
-
-        succ.setLeft(node.getLeft());
-        node.getLeft().setParent(succ);
-
-        succ.setParent(node.getParent());
-        if (node.getParent() != null) {
-            node.getParent().setChild(node.kindOfChild(), succ);
-        } else root = succ;
-        return succParent == node ? succ : succParent;
+    public void disableLazyDelete() {
+        compact();
+        maxTombstoneFraction = 0;
     }
 
-
     /**
-     * updates the prev and the next of the adjacent nodes to accommodate for node's deletion
+     * public int tombstones()
+     * <p>
+     * Returns the number of lazily deleted items still held by the tree.
      * time complexity: O(1)
-     * @param node
+     */
+    public int tombstones() {
+        return tombstones;
+    }
+
+    /**
+     * public void compact()
+     * <p>
+     * Rebuilds the tree from its live nodes into a perfectly balanced tree, dropping the tombstones into the
+     * node pool. the live nodes and, where possible, their virtual children are reused, and the threads are kept.
+     * time complexity: O(size + tombstones)
+     */
+    public void compact() {
+        if (tombstones == 0) return;
+        applyPendingTags();
+        AVLNode[] dead = new AVLNode[tombstones];
+        int found = 0;
+        AVLNode[] stack = new AVLNode[64];
+        int top = 0;
+        stack[top++] = root;
+        while (top > 0) {
+            AVLNode node = stack[--top];
+            if (!node.isRealNode()) continue;
+            if (node.isTombstone()) dead[found++] = node;
+            if (top + 2 > stack.length) stack = Arrays.copyOf(stack, 2 * stack.length);
+            stack[top++] = node.getLeft();
+            stack[top++] = node.getRight();
+        }
+        AVLNode[] live = new AVLNode[size];
+        AVLNode node = min;
+        for (int i = 0; i < size; ++i, node = node.getNext()) live[i] = node;
+        root = size == 0 ? null : build(live, 0, size - 1, null);
+        tombstones = 0;
+        for (AVLNode tombstone : dead) recycle(tombstone);
+    }
+
+    /**
+     * Links nodes[lo..hi], which are sorted and hold no tags, into a perfectly balanced subtree under parent.
+     * time complexity: O(hi - lo)
+     * @return the root of the subtree
+     */
+    private AVLNode build(AVLNode[] nodes, int lo, int hi, AVLNode parent) {
+        int mid = (lo + hi) >>> 1;
+        AVLNode node = nodes[mid];
+        node.setParent(parent);
+        node.setLeft(lo < mid ? build(nodes, lo, mid - 1, node) : virtualChild(node, node.getLeft()));
+        node.setRight(mid < hi ? build(nodes, mid + 1, hi, node) : virtualChild(node, node.getRight()));
+        updateHeight(node);
+        updateXor(node);
+        return node;
+    }
+
+    /**
+     * public void rebalanceFully()
+     * <p>
+     * Rebuilds the tree from fresh nodes into a perfectly balanced tree, in parallel on the common ForkJoinPool.
+     * tombstones are dropped and the new nodes are allocated subtree by subtree, so a tree fragmented by a long
+     * run of updates gets its neighbouring nodes close together in memory again. the old nodes are left to the
+     * garbage collector, so the tree briefly takes twice its heap. the items, the node pool, the search cache and
+     * the negative filter stay as they are, and nothing is logged.
+     * time complexity: O(size) work, O(size / parallelism + log(size)) span
+     */
+    public void rebalanceFully() {
+        buildSorted(parallelKeysToArray(), parallelInfoToArray(), ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Replaces the nodes of the tree with a perfectly balanced tree of the sorted items (keys[i], info[i]).
+     * time complexity: O(size) work, O(size / parallelism + log(size)) span
+     */
+    private void buildSorted(int[] keys, boolean[] info, ForkJoinPool pool) {
+        AVLNode built = null;
+        if (keys.length > 0) {
+            BuildTask task = new BuildTask(keys, info, 0, keys.length - 1);
+            pool.invoke(task);
+            built = task.built;
+        }
+        root = built;
+        size = keys.length;
+        tombstones = 0;
+        pendingTags = false;
+        min = built == null ? null : extreme(built, Direction.Left);
+        max = built == null ? null : extreme(built, Direction.Right);
+    }
+
+    /**
+     * Builds a perfectly balanced subtree of the sorted items lo..hi on the calling thread.
+     * time complexity: O(hi - lo)
+     * @return the root of the subtree, a virtual node if lo > hi
+     */
+    private AVLNode buildSorted(int[] keys, boolean[] info, int lo, int hi) {
+        if (lo > hi) return new AVLNode(-1, null);
+        int mid = (lo + hi) >>> 1;
+        AVLNode left = buildSorted(keys, info, lo, mid - 1);
+        AVLNode right = buildSorted(keys, info, mid + 1, hi);
+        return joinSorted(keys, info, mid, left, right);
+    }
+
+    /**
+     * Makes the item at index mid the parent of the complete subtrees left and right, setting its height and
+     * aggregates, and links it on the threads to the last node of left and the first node of right.
+     * every pair of neighbours on the threads is linked exactly once this way, by their lowest common ancestor.
+     * time complexity: O(height of left and right)
+     */
+    private AVLNode joinSorted(int[] keys, boolean[] info, int mid, AVLNode left, AVLNode right) {
+        int k = keys[mid];
+        if (k < 0) throw new IllegalArgumentException("negative key " + k + " at index " + mid);
+        if (mid > 0 && keys[mid - 1] >= k) {
+            throw new IllegalArgumentException("keys not strictly ascending at index " + mid);
+        }
+        AVLNode node = new AVLNode(k, info[mid], left, right);
+        updateHeight(node);
+        updateXor(node);
+        if (left.isRealNode()) {
+            AVLNode pred = extreme(left, Direction.Right);
+            pred.setNext(node);
+            node.setPrev(pred);
+        }
+        if (right.isRealNode()) {
+            AVLNode succ = extreme(right, Direction.Left);
+            succ.setPrev(node);
+            node.setNext(succ);
+        }
+        return node;
+    }
+
+    /**
+     * Returns the leftmost or rightmost real node of the subtree of the real node node.
+     * time complexity: O(height of node)
+     */
+    private static AVLNode extreme(AVLNode node, Direction side) {
+        AVLNode child = node.getChild(side);
+        while (child.isRealNode()) {
+            node = child;
+            child = node.getChild(side);
+        }
+        return node;
+    }
+
+    /**
+     * private final class BuildTask
+     * <p>
+     * Builds the subtree of the sorted items lo..hi, forking its two halves while it holds more than
+     * PARALLEL_THRESHOLD items. the joins order the children's writes before their parent reads them.
+     */
+    private final class BuildTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int[] keys;
+        private final boolean[] info;
+        private final int lo;
+        private final int hi;
+        private AVLNode built;
+
+        BuildTask(int[] keys, boolean[] info, int lo, int hi) {
+            this.keys = keys;
+            this.info = info;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo < PARALLEL_THRESHOLD) {
+                built = buildSorted(keys, info, lo, hi);
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            BuildTask left = new BuildTask(keys, info, lo, mid - 1);
+            BuildTask right = new BuildTask(keys, info, mid + 1, hi);
+            invokeAll(left, right);
+            built = joinSorted(keys, info, mid, left.built, right.built);
+        }
+    }
+
+    /**
+     * Returns a virtual child for node: its old child if that was virtual, since no other node can have held
+     * that one, or a new one.
+     */
+    private AVLNode virtualChild(AVLNode node, AVLNode old) {
+        AVLNode virtual = old != null && !old.isRealNode() ? old : new AVLNode(-1, null);
+        virtual.setParent(node);
+        return virtual;
+    }
+
+    /**
+     * Turns the item with key k into a tombstone, and compacts the tree if there are too many of them.
+     * time complexity: O(log(size)), O(size) when it compacts
+     * @return 1, for the tombstoned node, or -1 if there is no item with key k
+     */
+    private int markDeleted(int k) {
+        if (empty()) return -1;
+        AVLNode node = descend(k);
+        if (!node.isRealNode() || node.isTombstone()) return -1;
+        pushDown(node);
+        markDeleted(node);
+        return 1;
+    }
+
+    /**
+     * Turns the live item node into a tombstone, and compacts the tree if there are too many of them.
+     * node and its ancestors must not hold tags.
+     * time complexity: O(log(size)), O(size) when it compacts
+     */
+    private void markDeleted(AVLNode node) {
+        int k = node.getKey();
+        setNextPrevDelete(node);
+        updateMinMaxDelete(node);
+        node.setNext(null);
+        node.setPrev(null);
+        node.setTombstone(true);
+        --size;
+        ++tombstones;
+        invalidateCache(k);
+        filterRemoved(1);
+        updateXorsUp(node);
+        logChange(node.getValue() ? ChangeLog.DELETE_TRUE : ChangeLog.DELETE_FALSE, k, k);
+        compactIfNeeded();
+    }
+
+    /**
+     * Compacts the tree if tombstones make up more than maxTombstoneFraction of its nodes. every compaction
+     * drops all tombstones, so its O(size + tombstones) cost is less than tombstones / maxTombstoneFraction,
+     * paid once for each of them.
+     */
+    private void compactIfNeeded() {
+        if (tombstones > maxTombstoneFraction * (size + tombstones)) compact();
+    }
+
+    /**
+     * Brings the tombstone node back with info i. its ancestors must not hold tags.
+     * time complexity: O(log(size))
+     * @return 1, for the revived node
+     */
+    private int revive(AVLNode node, boolean i) {
+        int k = node.getKey();
+        AVLNode pred = lowerLive(k);
+        pushDown(node);
+        node.setValue(i);
+        node.setTombstone(false);
+        linkAfter(node, pred);
+        ++size;
+        --tombstones;
+        invalidateCache(k);
+        filterAdd(k);
+        updateXorsUp(node);
+        logChange(i ? ChangeLog.INSERT_TRUE : ChangeLog.INSERT_FALSE, k, k);
+        return 1;
+    }
+
+    /**
+     * Returns the live item with the largest key smaller than k, or null. found by rank, so it skips tombstones
+     * in O(log(size)) where a walk through the tree could meet any number of them.
+     */
+    private AVLNode lowerLive(int k) {
+        int rank = rank(k);
+        return rank == 0 ? null : select(rank - 1);
+    }
+
+    /**
+     * Puts node on the threads right after pred, or first if pred is null, and updates min and max.
+     * time complexity: O(1)
+     */
+    private void linkAfter(AVLNode node, AVLNode pred) {
+        AVLNode next = pred == null ? min : pred.getNext();
+        node.setPrev(pred);
+        node.setNext(next);
+        if (pred != null) pred.setNext(node);
+        else min = node;
+        if (next != null) next.setPrev(node);
+        else max = node;
+    }
+
+    /**
+     * Returns the number of tombstones in the subtree of node.
+     * time complexity: O(nodes in the subtree)
+     */
+    private static int countTombstones(AVLNode node) {
+        if (!node.isRealNode()) return 0;
+        return (node.isTombstone() ? 1 : 0) + countTombstones(node.getLeft()) + countTombstones(node.getRight());
+    }
+
+    /**
+     * public int deleteRange(int lo, int hi)
+     * <p>
+     * deletes all items with keys between lo and hi (inclusive) from the tree.
+     * the tree is split around the range and the parts outside it are joined back, so the removed nodes
+     * are only visited once, to count them, by walking the next-thread, and once more to recycle them if the
+     * node pool is enabled.
+     * returns the number of deleted items.
+     * time complexity: O(log(size) + removed)
+     */
+    public int deleteRange(int lo, int hi) {
+        AVLNode first = lo > hi ? null : ceilingNode(lo);
+        if (first == null || first.getKey() > hi) return 0;
+        AVLNode pred = first.getPrev();
+        AVLNode succ = first;
+        int removed = 0;
+        while (succ != null && succ.getKey() <= hi) {
+            ++removed;
+            invalidateCache(succ.getKey());
+            succ = succ.getNext();
+        }
+        size -= removed;
+        logChange(ChangeLog.DELETE_RANGE, lo, hi);
+
+        if (pred != null) pred.setNext(succ);
+        else min = succ;
+        if (succ != null) succ.setPrev(pred);
+        else max = pred;
+        filterRemoved(removed);
+        if (empty()) {
+            AVLNode discarded = root;
+            root = null;
+            tombstones = 0;
+            recycleSubtree(discarded);
+            return removed;
+        }
+
+        AVLNode[] parts = new AVLNode[2];
+        AVLNode right = root;
+        AVLNode left = null;
+        if (pred != null) {
+            split(root, pred.getKey(), parts);
+            left = parts[0];
+            right = parts[1];
+        }
+        AVLNode discarded;
+        if (succ != null) {
+            split(right, succ.getKey(), parts);
+            discarded = parts[0];
+            right = join(new AVLNode(-1, null), succ, parts[1]);
+        } else {
+            discarded = right;
+            right = new AVLNode(-1, null);
+        }
+        if (tombstones > 0) tombstones -= countTombstones(discarded);
+        root = pred != null ? join(left, pred, right) : right;
+        root.setParent(null);
+        recycleSubtree(discarded);
+        if (tombstones > 0) compactIfNeeded();
+        return removed;
+    }
+
+    /**
+     * Recycles the nodes of the detached subtree of node into the node pool, until the pool is full.
+     * time complexity: O(recycled nodes)
+     */
+    private void recycleSubtree(AVLNode node) {
+        if (poolSize >= poolCapacity || !node.isRealNode()) return;
+        AVLNode[] stack = new AVLNode[64];
+        int top = 0;
+        stack[top++] = node;
+        while (top > 0 && poolSize < poolCapacity) {
+            node = stack[--top];
+            if (!node.isRealNode()) continue;
+            if (top + 2 > stack.length) stack = Arrays.copyOf(stack, 2 * stack.length);
+            stack[top++] = node.getLeft();
+            stack[top++] = node.getRight();
+            recycle(node);
+        }
+    }
+
+    /**
+     * Splits the subtree rooted at node around the node with key k, which must be in it.
+     * parts[0] is set to the subtree of the smaller keys and parts[1] to the subtree of the larger keys;
+     * the node with key k is left detached.
+     * time complexity: O(log(size))
+     */
+    private void split(AVLNode node, int k, AVLNode[] parts) {
+        pushDown(node);
+        if (node.getKey() == k) {
+            parts[0] = node.getLeft();
+            parts[1] = node.getRight();
+        } else if (k < node.getKey()) {
+            split(node.getLeft(), k, parts);
+            parts[1] = join(parts[1], node, node.getRight());
+        } else {
+            split(node.getRight(), k, parts);
+            parts[0] = join(node.getLeft(), node, parts[0]);
+        }
+    }
+
+    /**
+     * Joins two AVL subtrees with a middle node whose key is between them into one AVL subtree.
+     * either subtree may be a virtual node. parent pointers below the result are set, the result's is not.
+     * time complexity: O(|height(left) - height(right)| + 1)
+     * @return the root of the joined subtree
+     */
+    private AVLNode join(AVLNode left, AVLNode mid, AVLNode right) {
+        if (left.getHeight() > right.getHeight() + 1) return joinDown(Direction.Right, left, mid, right);
+        if (right.getHeight() > left.getHeight() + 1) return joinDown(Direction.Left, right, mid, left);
+        return link(left, mid, right);
+    }
+
+    /**
+     * Joins by walking down the dir spine of the taller subtree until its height matches the shorter one,
+     * rotating on the way back up where the joined spine got too tall.
+     * time complexity: O(height(taller) - height(shorter))
+     * @return the root of the joined subtree
+     */
+    private AVLNode joinDown(Direction dir, AVLNode taller, AVLNode mid, AVLNode shorter) {
+        pushDown(taller);
+        AVLNode inner = taller.getChild(dir);
+        AVLNode joined;
+        if (inner.getHeight() <= shorter.getHeight() + 1) {
+            joined = dir == Direction.Right ? link(inner, mid, shorter) : link(shorter, mid, inner);
+            if (joined.getHeight() > taller.getChild(dir.opposite()).getHeight() + 1) {
+                joined = rotateSubtree(dir, joined);
+            }
+        } else {
+            joined = joinDown(dir, inner, mid, shorter);
+        }
+        taller.setChild(dir, joined);
+        joined.setParent(taller);
+        fix(taller);
+        if (joined.getHeight() > taller.getChild(dir.opposite()).getHeight() + 1) {
+            return rotateSubtree(dir.opposite(), taller);
+        }
+        return taller;
+    }
+
+    /**
+     * Makes left and right the children of mid, which must not hold a tag.
+     * time complexity: O(1)
+     * @return mid
+     */
+    private AVLNode link(AVLNode left, AVLNode mid, AVLNode right) {
+        mid.setLeft(left);
+        left.setParent(mid);
+        mid.setRight(right);
+        right.setParent(mid);
+        fix(mid);
+        return mid;
+    }
+
+    /**
+     * Rotates a detached subtree in the dir direction, without touching the node above it.
+     * time complexity: O(1)
+     * @return the new root of the subtree
+     */
+    private AVLNode rotateSubtree(Direction dir, AVLNode node) {
+        pushDown(node);
+        AVLNode pivot = node.getChild(dir.opposite());
+        pushDown(pivot);
+        node.setChild(dir.opposite(), pivot.getChild(dir));
+        pivot.getChild(dir).setParent(node);
+        pivot.setChild(dir, node);
+        node.setParent(pivot);
+        fix(node);
+        fix(pivot);
+        return pivot;
+    }
+
+    /**
+     * updates the height and the xorOfChildren field of node according to its children
+     * time complexity: O(1)
+     */
+    private void fix(AVLNode node) {
+        updateHeight(node);
+        updateXor(node);
+    }
+
+    /**
+     * deletes the node with key k as if it was a regular Binary Searching Tree.
+     * algorithm is as shown in class.
+     * time complexity: O(log(size))
+     * @param k
+     * @return The node that one should start vertical updating of heights and rotations with
+     */
+    public AVLNode deleteBST(int k) {
+        if (empty()) return null ;
+        AVLNode node = descend(k);
+        if (!node.isRealNode()) return null;
+        pushDown(node);
+        if (node.isTombstone()) return null;
+        return unlink(node);
+    }
+
+    /**
+     * Removes node from the tree, its threads, min/max and the cache and filter, and puts it in the pool.
+     * node and its ancestors must not hold tags.
+     * time complexity: O(1) if node has at most one child, O(log(size)) otherwise
+     * @return The node that one should start vertical updating of heights and rotations with
+     */
+    private AVLNode unlink(AVLNode node) {
+        AVLNode parent = node.getParent();
+        setNextPrevDelete(node);
+        updateMinMaxDelete(node);
+        --size;
+        invalidateCache(node.getKey());
+        filterRemoved(1);
+        if (node.getRight().isRealNode()) {
+            if (node.getLeft().isRealNode()) {
+                parent = deleteTwoChidren(node);
+            } else {
+
+                node.getRight().setParent(parent);
+                if (parent != null) parent.setChild(node.kindOfChild(), node.getRight());
+                else root = node.getRight();
+            }
+        } else {
+            node.getLeft().setParent(parent);
+            if (parent != null) parent.setChild(node.kindOfChild(), node.getLeft());
+            else root = node.getLeft();
+        }
+        recycle(node);
+        return parent;
+    }
+
+    /**
+     * Creates a node with key k and info i, reusing a node from the pool if there is one.
+     * time complexity: O(1)
+     */
+    private AVLNode newNode(int k, boolean i) {
+        if (pool == null) return new AVLNode(k, i);
+        AVLNode node = pool;
+        pool = node.getNext();
+        --poolSize;
+        poolVirtualNodes -= virtualChildren(node);
+        node.reset(k, i);
+        return node;
+    }
+
+    /**
+     * Puts a node that was unlinked from the tree in the pool, if the pool has room.
+     * Children that were moved into the tree are dropped, the node keeps only the virtual children it still owns.
+     * time complexity: O(1)
+     */
+    private void recycle(AVLNode node) {
+        if (poolSize >= poolCapacity) return;
+        if (node.getLeft().isRealNode() || node.getLeft().getParent() != node) node.setLeft(null);
+        if (node.getRight().isRealNode() || node.getRight().getParent() != node) node.setRight(null);
+        node.setParent(null);
+        node.setPrev(null);
+        node.setNext(pool);
+        pool = node;
+        ++poolSize;
+        poolVirtualNodes += virtualChildren(node);
+    }
+
+    /**
+     * Sets the maximal amount of deleted nodes kept for reuse by insert, 0 disables recycling.
+     * Nodes above the new capacity are released.
+     * time complexity: O(max(0, nodePoolSize() - capacity))
+     */
+    public void setNodePoolCapacity(int capacity) {
+        if (capacity < 0) throw new IllegalArgumentException("capacity must be non-negative: " + capacity);
+        this.poolCapacity = capacity;
+        trimNodePool(capacity);
+    }
+
+    /**
+     * Releases pooled nodes until at most maxRetained are left.
+     * time complexity: O(max(0, nodePoolSize() - maxRetained))
+     * @return the number of nodes released
+     */
+    public int trimNodePool(int maxRetained) {
+        int released = 0;
+        while (poolSize > Math.max(0, maxRetained)) {
+            AVLNode node = pool;
+            pool = node.getNext();
+            node.setNext(null);
+            --poolSize;
+            poolVirtualNodes -= virtualChildren(node);
+            ++released;
+        }
+        return released;
+    }
+
+    /**
+     * Returns the number of deleted nodes currently waiting for reuse.
+     * time complexity: O(1)
+     */
+    public int nodePoolSize() {
+        return poolSize;
+    }
+
+    /**
+     * the number of virtual children a pooled node holds
+     */
+    private static int virtualChildren(AVLNode node) {
+        return (node.getLeft() != null ? 1 : 0) + (node.getRight() != null ? 1 : 0);
+    }
+
+    /**
+     * public long estimateRetainedBytes()
+     * <p>
+     * Returns an estimate of the heap retained by the tree, the total of heapFootprint().
+     * time complexity: O(1)
+     */
+    public long estimateRetainedBytes() {
+        return heapFootprint().total();
+    }
+
+    /**
+     * public HeapFootprint heapFootprint()
+     * <p>
+     * Returns the estimated heap retained by the tree, in parts: the tree object, the real nodes, the tombstones
+     * of lazy deletes, the virtual nodes, the pooled nodes with the virtual children they kept, and the arrays of the search cache, the
+     * negative filter and the change log.
+     * a non-empty tree always holds size + tombstones + 1 virtual nodes, one per empty child slot.
+     * the details show what the nodes spend on the next/prev threads, on parent pointers and on references to
+     * Boolean values. there are no Boolean objects to count: values are boxed by Boolean.valueOf, which returns
+     * the shared Boolean.TRUE and Boolean.FALSE.
+     * time complexity: O(1)
+     */
+    public HeapFootprint heapFootprint() {
+        long virtualNodes = empty() ? 0 : size + tombstones + 1L;
+        long nodes = size + tombstones + virtualNodes + poolSize + poolVirtualNodes;
+        long reference = HeapFootprint.REFERENCE_BYTES;
+        return new HeapFootprint()
+                .part(HeapFootprint.TREE, TREE_BYTES)
+                .part(HeapFootprint.REAL_NODES, size * NODE_BYTES)
+                .part(HeapFootprint.TOMBSTONES, tombstones * NODE_BYTES)
+                .part(HeapFootprint.VIRTUAL_NODES, virtualNodes * NODE_BYTES)
+                .part(HeapFootprint.NODE_POOL, (poolSize + (long) poolVirtualNodes) * NODE_BYTES)
+                .part(HeapFootprint.SEARCH_CACHE, cacheSlots == null ? 0 : HeapFootprint.arrayBytes(cacheSlots.length, 8))
+                .part(HeapFootprint.NEGATIVE_FILTER, filterWords == null ? 0 : HeapFootprint.arrayBytes(filterWords.length, 8))
+                .part(HeapFootprint.CHANGE_LOG, changeLog == null ? 0 : changeLog.estimateRetainedBytes())
+                .detail(HeapFootprint.THREAD_POINTERS, 2 * reference * nodes)
+                .detail(HeapFootprint.PARENT_POINTERS, reference * nodes)
+                .detail(HeapFootprint.BOOLEAN_REFERENCES, reference * nodes)
+                .detail(HeapFootprint.BOOLEAN_OBJECTS, 0);
+    }
+
+
+    /**
+     * Handles the deletion of node in the case that node has two children
+     * time complexity: O(1)
+     * @param node
+     * @return the parent of node's former successor
+     */
+    private AVLNode deleteTwoChidren(AVLNode node) {
+        // the successor in the tree, which is not node.getNext() if a tombstone lies between them
+        AVLNode succ = node.getRight();
+        for (; succ.getLeft().isRealNode(); succ = succ.getLeft()) pushDown(succ);
+        pushDown(succ);
+        AVLNode succParent = succ.getParent();
+        if (succParent != node) {
+            if (succParent != null) {
+                succParent.setLeft(succ.getRight());
+                succ.getRight().setParent(succParent);
+            } else {
+                root = succ.getLeft();
+                root.setParent(null);
+            }
+            succ.setRight(node.getRight());
+            node.getRight().setParent(succ);
+        }
+
+        succ.setLeft(node.getLeft());
+        node.getLeft().setParent(succ);
+        succ.setHeight(node.getHeight()); // succ takes node's place, the rebalancing below may stop before it
+
+        succ.setParent(node.getParent());
+        if (node.getParent() != null) {
+            node.getParent().setChild(node.kindOfChild(), succ);
+        } else root = succ;
+        return succParent == node ? succ : succParent;
+    }
+
+
+    /**
+     * updates the prev and the next of the adjacent nodes to accommodate for node's deletion
+     * time complexity: O(1)
+     * @param node
      */
     private void setNextPrevDelete(AVLNode node) {
         AVLNode next = node.getNext();
@@ -377,15 +1485,105 @@ public class AVLTree implements IBSTree {
         if (min.getKey() == node.getKey()) min = node.getNext();
     }
 
+    /**
+     * public int peekFirstKey()
+     * <p>
+     * Returns the smallest key in the tree, or -1 if the tree is empty
+     * time complexity: O(1)
+     */
+    public int peekFirstKey() {
+        return min == null ? -1 : min.getKey();
+    }
+
+    /**
+     * public int peekLastKey()
+     * <p>
+     * Returns the largest key in the tree, or -1 if the tree is empty
+     * time complexity: O(1)
+     */
+    public int peekLastKey() {
+        return max == null ? -1 : max.getKey();
+    }
+
+    /**
+     * public int pollFirst()
+     * <p>
+     * Removes the item with the smallest key from the tree and returns its key, or -1 if the tree is empty.
+     * the cached min node is unlinked directly, without a search from the root. without tombstones it has no
+     * left child, so it is replaced by its right subtree, and rebalancing takes amortized O(1) rotations. with
+     * lazy delete enabled, tombstones with smaller keys may hang below it, and then it is unlinked like any
+     * node with two children.
+     * it is not O(1) amortized like a binary heap's poll: every ancestor keeps the count and the xor of its
+     * subtree, which rank, select and prefixXor need, and both change when an item leaves, so they are fixed
+     * up to the root by following parent pointers.
+     * time complexity: O(log(size)), amortized O(1) rotations without tombstones
+     */
+    public int pollFirst() {
+        return poll(min);
+    }
+
+    /**
+     * public int pollLast()
+     * <p>
+     * Removes the item with the largest key from the tree and returns its key, or -1 if the tree is empty.
+     * symmetric to pollFirst
+     * time complexity: O(log(size)), amortized O(1) rotations
+     */
+    public int pollLast() {
+        return poll(max);
+    }
+
+    private int poll(AVLNode node) {
+        if (node == null) return -1;
+        if (pendingTags) pushDownPath(node);
+        int key = node.getKey();
+        boolean value = node.getValue();
+        AVLNode parent = unlink(node);
+        if (empty()) {
+            root = null;
+            tombstones = 0;
+        }
+        logChange(value ? ChangeLog.DELETE_TRUE : ChangeLog.DELETE_FALSE, key, key);
+        rebalanceDeleted(parent);
+        if (tombstones > 0) compactIfNeeded();
+        return key;
+    }
+
+    /**
+     * public int pollFirst(int n, int[] out)
+     * <p>
+     * Removes the n items with the smallest keys (or all of them if there are fewer) and writes their keys to
+     * out in ascending order. the keys are read off the next-thread and removed with one deleteRange.
+     * time complexity: O(log(size) + n)
+     * @return the number of removed items
+     */
+    public int pollFirst(int n, int[] out) {
+        int count = Math.min(Math.min(n, size), out.length);
+        if (count <= 0) return 0;
+        AVLNode node = min;
+        for (int i = 0; i < count; ++i, node = node.getNext()) out[i] = node.getKey();
+        deleteRange(out[0], out[count - 1]);
+        return count;
+    }
+
+    /**
+     * Pushes the tags of all the ancestors of node, and of node itself, down past it.
+     * time complexity: O(log(size))
+     */
+    private static void pushDownPath(AVLNode node) {
+        if (node.getParent() != null) pushDownPath(node.getParent());
+        pushDown(node);
+    }
+
     /**
      * public Boolean min()
      * <p>
      * Returns the info of the item with the smallest key in the tree,
      * or null if the tree is empty
-     * time complexity: O(1)
+     * time complexity: O(1), O(log(size)) while range tags are pending (see effectiveValue)
      */
     public Boolean min() {
-        return min == null ? null : min.getValue();
+        return min == null ? null : effectiveValue(min);
     }
 
     /**
@@ -393,10 +1591,10 @@ public class AVLTree implements IBSTree {
      * <p>
      * Returns the info of the item with the largest key in the tree,
      * or null if the tree is empty
-     * time complexity: O(1)
+     * time complexity: O(1), O(log(size)) while range tags are pending (see effectiveValue)
      */
     public Boolean max() {
-        return max == null ? null : max.getValue();
+        return max == null ? null : effectiveValue(max);
     }
 
     /**
@@ -424,6 +1622,7 @@ public class AVLTree implements IBSTree {
      * time complexity: O(size)
      */
     public boolean[] infoToArray() {
+        applyPendingTags();
         boolean[] arr = new boolean[size];
         AVLNode node = min;
         for (int i = 0; i < size; ++i, node = node.getNext()) {
@@ -432,6 +1631,247 @@ public class AVLTree implements IBSTree {
         return arr;
     }
 
+    /**
+     * public IntStream keys()
+     * <p>
+     * Returns a stream of all keys in the tree in ascending order.
+     * the stream splits by subtrees, so parallel() divides the work along the tree's balance.
+     * the tree must not be modified while the stream is in use.
+     * time complexity: O(1), O(size) to consume
+     */
+    public IntStream keys() {
+        return StreamSupport.intStream(new AVLTreeSpliterator.Keys(min, null, root, size), false);
+    }
+
+    /**
+     * public Stream<AVLNode> entries()
+     * <p>
+     * Returns a stream of all real nodes in the tree in ascending key order, splitting like keys().
+     * the tree must not be modified while the stream is in use.
+     * time complexity: O(1), O(size) to consume
+     */
+    public Stream<AVLNode> entries() {
+        applyPendingTags();
+        return StreamSupport.stream(new AVLTreeSpliterator.Nodes(min, null, root, size), false);
+    }
+
+    /**
+     * public int[] parallelKeysToArray()
+     * <p>
+     * Same as keysToArray(), filling disjoint slices of the array concurrently.
+     * time complexity: O(size) work, O(size / parallelism + log(size)) span
+     */
+    public int[] parallelKeysToArray() {
+        int[] arr = new int[size];
+        fillParallel((node, i) -> arr[i] = node.getKey());
+        return arr;
+    }
+
+    /**
+     * public boolean[] parallelInfoToArray()
+     * <p>
+     * Same as infoToArray(), filling disjoint slices of the array concurrently.
+     * time complexity: O(size) work, O(size / parallelism + log(size)) span
+     */
+    public boolean[] parallelInfoToArray() {
+        applyPendingTags();
+        boolean[] arr = new boolean[size];
+        fillParallel((node, i) -> arr[i] = node.getValue());
+        return arr;
+    }
+
+    /**
+     * Splits the tree into chunks by subtrees, adds up their exact sizes to find where each slice starts,
+     * then hands every node with its index to fill, one chunk per task.
+     * time complexity: O(size)
+     */
+    private void fillParallel(ObjIntConsumer<AVLNode> fill) {
+        List<AVLTreeSpliterator.Nodes> chunks = new ArrayList<>();
+        chunks.add(new AVLTreeSpliterator.Nodes(min, null, root, size));
+        int target = size < PARALLEL_THRESHOLD ? 1 : 4 * Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i < chunks.size() && chunks.size() < target; ) {
+            AVLTreeSpliterator.Nodes prefix = chunks.get(i).trySplit();
+            if (prefix == null) ++i;
+            else chunks.add(i, prefix);
+        }
+
+        int[] offsets = new int[chunks.size() + 1];
+        for (int c = 0; c < chunks.size(); ++c) offsets[c + 1] = offsets[c] + (int) chunks.get(c).estimateSize();
+        IntStream.range(0, chunks.size()).parallel().forEach(c -> {
+            int i = offsets[c];
+            for (AVLNode node = chunks.get(c).next; node != chunks.get(c).fence; node = node.getNext()) {
+                fill.accept(node, i++);
+            }
+        });
+    }
+
+    /**
+     * public int exportKeys(IntBuffer dst, int fromKey)
+     * <p>
+     * Writes the keys which are greater or equal to fromKey, in ascending order, into dst until it is full
+     * or the keys run out. Large trees can be streamed through a fixed-size buffer by calling again with the
+     * returned key.
+     * time complexity: O(log(size) + written)
+     * @return the key to resume from, or -1 if every key from fromKey on was written
+     */
+    public int exportKeys(IntBuffer dst, int fromKey) {
+        AVLNode node = ceilingNode(fromKey);
+        while (node != null && dst.hasRemaining()) {
+            dst.put(node.getKey());
+            node = node.getNext();
+        }
+        return node == null ? -1 : node.getKey();
+    }
+
+    /**
+     * public int exportEntries(ByteBuffer dst, int fromKey)
+     * <p>
+     * Same as exportKeys, writing every item as its key (4 bytes, in dst's byte order) followed by its info
+     * (1 byte, 0 or 1). Only whole entries are written.
+     * time complexity: O(log(size) + written)
+     * @return the key to resume from, or -1 if every item from fromKey on was written
+     */
+    public int exportEntries(ByteBuffer dst, int fromKey) {
+        applyPendingTags();
+        AVLNode node = ceilingNode(fromKey);
+        while (node != null && dst.remaining() >= ENTRY_BYTES) {
+            dst.putInt(node.getKey());
+            dst.put(node.getValue() ? (byte) 1 : (byte) 0);
+            node = node.getNext();
+        }
+        return node == null ? -1 : node.getKey();
+    }
+
+    /**
+     * Finds the node with the smallest key that is greater or equal to k.
+     * time complexity: O(log(size))
+     * @return the node, or null if there is no such key
+     */
+    AVLNode ceilingNode(int k) {
+        if (empty()) return null;
+        if (tombstones > 0) {
+            int rank = rank(k);
+            return rank < size ? select(rank) : null;
+        }
+        AVLNode node = root;
+        AVLNode ceiling = null;
+        while (node.isRealNode()) {
+            if (node.getKey() == k) return node;
+            if (node.getKey() > k) {
+                ceiling = node;
+                node = node.getLeft();
+            } else
+                node = node.getRight();
+        }
+        return ceiling;
+    }
+
+    /**
+     * Finds the node with the largest key that is smaller or equal to k.
+     * time complexity: O(log(size))
+     * @return the node, or null if there is no such key
+     */
+    AVLNode floorNode(int k) {
+        if (empty()) return null;
+        if (tombstones > 0) {
+            int rank = k == Integer.MAX_VALUE ? size : rank(k + 1);
+            return rank == 0 ? null : select(rank - 1);
+        }
+        AVLNode node = root;
+        AVLNode floor = null;
+        while (node.isRealNode()) {
+            if (node.getKey() == k) return node;
+            if (node.getKey() < k) {
+                floor = node;
+                node = node.getRight();
+            } else
+                node = node.getLeft();
+        }
+        return floor;
+    }
+
+    /**
+     * The nodes with the smallest and the largest key, null if the tree is empty.
+     * time complexity: O(1)
+     */
+    AVLNode firstNode() {
+        return min;
+    }
+
+    AVLNode lastNode() {
+        return max;
+    }
+
+    /**
+     * public int rank(int k)
+     * <p>
+     * Returns the number of items with keys smaller than k, from the subtree sizes on the path to k.
+     * time complexity: O(log(size))
+     */
+    public int rank(int k) {
+        int rank = 0;
+        AVLNode node = root;
+        while (node != null && node.isRealNode()) {
+            if (node.getKey() < k) {
+                rank += node.getLeft().getCount() + (node.isTombstone() ? 0 : 1);
+                node = node.getRight();
+            } else {
+                node = node.getLeft();
+            }
+        }
+        return rank;
+    }
+
+    /**
+     * Returns the item with exactly rank items of smaller keys, found from the subtree counts.
+     * precondition: 0 <= rank < size
+     * time complexity: O(log(size))
+     */
+    AVLNode select(int rank) {
+        AVLNode node = root;
+        while (true) {
+            int smaller = node.getLeft().getCount();
+            if (rank < smaller) {
+                node = node.getLeft();
+            } else if (rank == smaller && !node.isTombstone()) {
+                return node;
+            } else {
+                rank -= smaller + (node.isTombstone() ? 0 : 1);
+                node = node.getRight();
+            }
+        }
+    }
+
+    /**
+     * public Boolean replace(int k, boolean i)
+     * <p>
+     * Sets the info of the item with key k to i, if there is one, and fixes the xors above it.
+     * returns the previous info, or null if k is not in the tree, in which case nothing changes.
+     * time complexity: O(log(size))
+     */
+    public Boolean replace(int k, boolean i) {
+        if (empty() || (filterWords != null && !mightContain(k))) return null;
+        AVLNode node = descend(k);
+        if (!node.isRealNode() || node.isTombstone()) return null;
+        return setValue(node, i);
+    }
+
+    /**
+     * Sets the info of the live item node to i and fixes the xors above it. its ancestors must not hold tags.
+     * time complexity: O(log(size))
+     * @return the previous info
+     */
+    private boolean setValue(AVLNode node, boolean i) {
+        int k = node.getKey();
+        pushDown(node);
+        boolean previous = node.getValue();
+        node.setValue(i);
+        invalidateCache(k);
+        updateXorsUp(node);
+        logChange(i ? ChangeLog.REPLACE_TRUE : ChangeLog.REPLACE_FALSE, k, k);
+        return previous;
+    }
+
     /**
      * public int size()
      * <p>
@@ -449,6 +1889,7 @@ public class AVLTree implements IBSTree {
      * time complexity: O(1)
      */
     public AVLNode getRoot() {
+        applyPendingTags();
         return this.root;
     }
 
@@ -464,28 +1905,275 @@ public class AVLTree implements IBSTree {
     public boolean prefixXor(int k){
         boolean xor = root.xorOfChildren; //xor of the entire tree
         AVLNode node = root;
+        byte pending = TAG_NONE; // tags above node that were not pushed to it yet
         while (node.getKey() != k) {
+            byte below = compose(node.getTag(), pending);
             if (node.getKey() < k) {
                 node = node.getRight();
             }
             else {
-                xor ^= node.getValue() ^ node.getRight().getXorOfChildren(); // removing the nodes with keys bigger than k from the xor
+                // removing the nodes with keys bigger than k from the xor
+                xor ^= (!node.isTombstone() && tagValue(pending, node.getValue())) ^ tagXor(below, node.getRight());
                 node = node.getLeft();
             }
+            pending = below;
+        }
+        return xor ^ tagXor(compose(node.getTag(), pending), node.getRight());
+
+    }
+
+    /**
+     * public void searchAll(int[] keys, byte[] out)
+     * <p>
+     * Answers search for every key in keys at once: out[i] is 1 if keys[i] is in the tree with info true,
+     * 0 if it is in the tree with info false and ABSENT if it is not in the tree.
+     * the queries are sorted (unless they already are) and answered in one walk of the tree,
+     * so queries that share a path from the root only walk it once.
+     * time complexity: O(m*log(m) + m*log(size/m + 1)) for m = keys.length
+     */
+    public void searchAll(int[] keys, byte[] out) {
+        if (out.length < keys.length) throw new IllegalArgumentException("out is shorter than keys");
+        batchWalk(keys, out, null);
+    }
+
+    /**
+     * public void prefixXorAll(int[] keys, boolean[] out)
+     * <p>
+     * Answers prefixXor for every key in keys at once, walking the tree like searchAll.
+     * unlike prefixXor, keys don't have to be in the tree: out[i] is the xor of the info of the items
+     * whose keys are smaller or equal to keys[i] (false if there are none).
+     * time complexity: O(m*log(m) + m*log(size/m + 1)) for m = keys.length
+     */
+    public void prefixXorAll(int[] keys, boolean[] out) {
+        if (out.length < keys.length) throw new IllegalArgumentException("out is shorter than keys");
+        batchWalk(keys, null, out);
+    }
+
+    /**
+     * Sorts the queries if needed, remembering where each one came from, and answers them with batchSweep.
+     * exactly one of found and xors is not null and decides which question is answered.
+     * time complexity: O(m*log(m) + m*log(size/m + 1))
+     */
+    private void batchWalk(int[] keys, byte[] found, boolean[] xors) {
+        int[] sorted = keys;
+        int[] order = null;
+        for (int i = 1; i < keys.length; ++i) {
+            if (keys[i - 1] > keys[i]) {
+                long[] packed = new long[keys.length];
+                for (int j = 0; j < keys.length; ++j) packed[j] = ((long) keys[j] << 32) | j;
+                Arrays.sort(packed);
+                sorted = new int[keys.length];
+                order = new int[keys.length];
+                for (int j = 0; j < keys.length; ++j) {
+                    sorted[j] = (int) (packed[j] >> 32);
+                    order[j] = (int) packed[j];
+                }
+                break;
+            }
+        }
+        batchSweep(empty() ? null : root, TAG_NONE, sorted, order, 0, keys.length, false, found, xors);
+    }
+
+    /**
+     * Answers the sorted queries sorted[from..to) against the subtree of node, in order.
+     * pending is the tag above node that was not pushed to it yet,
+     * xor is the xor of the info of all items with keys smaller than the keys in node's subtree.
+     * time complexity: O(m*log(size/m + 1)) for m = to - from
+     */
+    private void batchSweep(AVLNode node, byte pending, int[] sorted, int[] order, int from, int to, boolean xor,
+                            byte[] found, boolean[] xors) {
+        if (from == to) return;
+        if (node == null || !node.isRealNode()) {
+            for (int i = from; i < to; ++i) {
+                int index = order == null ? i : order[i];
+                if (found != null) found[index] = ABSENT;
+                else xors[index] = xor;
+            }
+            return;
+        }
+        int mid = bisect(sorted, from, to, node.getKey(), false);
+        int end = bisect(sorted, mid, to, node.getKey(), true);
+
+        byte below = compose(node.getTag(), pending);
+        boolean value = tagValue(pending, node.getValue());
+        boolean live = !node.isTombstone();
+        batchSweep(node.getLeft(), below, sorted, order, from, mid, xor, found, xors);
+        boolean upTo = xor ^ tagXor(below, node.getLeft()) ^ (live && value);
+        for (int i = mid; i < end; ++i) {
+            int index = order == null ? i : order[i];
+            if (found != null) found[index] = !live ? ABSENT : value ? (byte) 1 : (byte) 0;
+            else xors[index] = upTo;
+        }
+        batchSweep(node.getRight(), below, sorted, order, end, to, upTo, found, xors);
+    }
+
+    /**
+     * Binary search in sorted[from..to).
+     * time complexity: O(log(to - from))
+     * @return the first index whose key is greater than k (or equal to it if orEqual is false), or to
+     */
+    private static int bisect(int[] sorted, int from, int to, int k, boolean orEqual) {
+        while (from < to) {
+            int mid = (from + to) >>> 1;
+            if (sorted[mid] < k || (orEqual && sorted[mid] == k)) from = mid + 1;
+            else to = mid;
+        }
+        return from;
+    }
+
+    /**
+     * public void flipRange(int lo, int hi)
+     * <p>
+     * Inverts the info of every item with key between lo and hi (inclusive).
+     * subtrees that lie inside the range get a lazy tag instead of being visited, and tags are pushed down
+     * by later descents and rotations.
+     * time complexity: O(log(size))
+     */
+    public void flipRange(int lo, int hi) {
+        applyToRange(lo, hi, TAG_FLIP);
+    }
+
+    /**
+     * public void setRange(int lo, int hi, boolean b)
+     * <p>
+     * Sets the info of every item with key between lo and hi (inclusive) to b, lazily like flipRange.
+     * time complexity: O(log(size))
+     */
+    public void setRange(int lo, int hi, boolean b) {
+        applyToRange(lo, hi, b ? TAG_SET_TRUE : TAG_SET_FALSE);
+    }
+
+    private void applyToRange(int lo, int hi, byte tag) {
+        if (empty() || lo > hi) return;
+        applyToRange(root, lo, hi, tag, Long.MIN_VALUE, Long.MAX_VALUE);
+        pendingTags = true;
+        logChange(tag == TAG_FLIP ? ChangeLog.FLIP_RANGE
+                : tag == TAG_SET_TRUE ? ChangeLog.SET_RANGE_TRUE : ChangeLog.SET_RANGE_FALSE, lo, hi);
+        if (cacheSlots != null) Arrays.fill(cacheSlots, CACHE_EMPTY);
+    }
+
+    /**
+     * Applies tag to the items of node's subtree with keys in [lo, hi], given that all the keys in the subtree
+     * are strictly between below and above. node must not have a tag pending from above.
+     * time complexity: O(log(size))
+     */
+    private void applyToRange(AVLNode node, int lo, int hi, byte tag, long below, long above) {
+        if (!node.isRealNode() || above <= lo || below >= hi) return;
+        if (lo <= below + 1 && above - 1 <= hi) {
+            applyTag(node, tag);
+            return;
+        }
+        pushDown(node);
+        if (lo <= node.getKey() && node.getKey() <= hi) node.setValue(tagValue(tag, node.getValue()));
+        applyToRange(node.getLeft(), lo, hi, tag, below, node.getKey());
+        applyToRange(node.getRight(), lo, hi, tag, node.getKey(), above);
+        updateXor(node);
+    }
+
+    /**
+     * Applies tag to the whole subtree of node: its value and xor now, its children later.
+     * time complexity: O(1)
+     */
+    private static void applyTag(AVLNode node, byte tag) {
+        if (!node.isRealNode() || tag == TAG_NONE) return;
+        node.setValue(tagValue(tag, node.getValue()));
+        node.setXorOfChildren(tagXor(tag, node));
+        node.setTag(compose(node.getTag(), tag));
+    }
+
+    /**
+     * Passes node's tag on to its children.
+     * time complexity: O(1)
+     */
+    private static void pushDown(AVLNode node) {
+        if (node.getTag() == TAG_NONE) return;
+        applyTag(node.getLeft(), node.getTag());
+        applyTag(node.getRight(), node.getTag());
+        node.setTag(TAG_NONE);
+    }
+
+    /**
+     * Pushes every tag in the tree all the way down, so every node holds its real value.
+     * time complexity: O(size) if there are tags, O(1) otherwise
+     */
+    void applyPendingTags() {
+        if (!pendingTags) return;
+        pendingTags = false;
+        if (empty()) return;
+        AVLNode[] stack = new AVLNode[root.getHeight() + 2];
+        int top = 0;
+        stack[top++] = root;
+        while (top > 0) {
+            AVLNode node = stack[--top];
+            pushDown(node);
+            if (top + 2 > stack.length) stack = Arrays.copyOf(stack, 2 * stack.length);
+            if (node.getRight().isRealNode()) stack[top++] = node.getRight();
+            if (node.getLeft().isRealNode()) stack[top++] = node.getLeft();
+        }
+    }
+
+    /**
+     * Returns node's value with the tags of its ancestors that were not pushed to it yet applied.
+     * the ancestors are only walked while some range tag is pending, that is after a flipRange or setRange
+     * that no applyPendingTags has pushed all the way down yet.
+     * time complexity: O(1) with no pending tags, O(log(size)) otherwise
+     */
+    boolean effectiveValue(AVLNode node) {
+        boolean value = node.getValue();
+        if (!pendingTags) return value;
+        for (AVLNode above = node.getParent(); above != null; above = above.getParent()) {
+            value = tagValue(above.getTag(), value);
+        }
+        return value;
+    }
+
+    /**
+     * time complexity: O(1)
+     * @return the tag that has the effect of applying first and then then
+     */
+    private static byte compose(byte first, byte then) {
+        if (then == TAG_NONE) return first;
+        if (then != TAG_FLIP) return then;
+        switch (first) {
+            case TAG_NONE: return TAG_FLIP;
+            case TAG_FLIP: return TAG_NONE;
+            case TAG_SET_FALSE: return TAG_SET_TRUE;
+            default: return TAG_SET_FALSE;
+        }
+    }
+
+    private static boolean tagValue(byte tag, boolean value) {
+        switch (tag) {
+            case TAG_FLIP: return !value;
+            case TAG_SET_FALSE: return false;
+            case TAG_SET_TRUE: return true;
+            default: return value;
         }
-        return xor ^ node.getRight().getXorOfChildren();
+    }
 
+    /**
+     * @return the xor of node's subtree after applying tag to all of it
+     */
+    private static boolean tagXor(byte tag, AVLNode node) {
+        boolean odd = (node.getCount() & 1) == 1;
+        switch (tag) {
+            case TAG_FLIP: return node.getXorOfChildren() ^ odd;
+            case TAG_SET_FALSE: return false;
+            case TAG_SET_TRUE: return odd;
+            default: return node.getXorOfChildren();
+        }
     }
 
     /**
      * public AVLNode successor
      *
      * given a node 'node' in the tree, return the successor of 'node' in the tree (or null if successor doesn't exist)
-     * time complexity: O(1)
+     * time complexity: O(1), or O(size) once after flipRange or setRange
      * @param node - the node whose successor should be returned
      * @return the successor of 'node' if exists, null otherwise
      */
     public AVLNode successor(AVLNode node){
+        applyPendingTags();
         return node.getNext();
     }
 
@@ -499,6 +2187,7 @@ public class AVLTree implements IBSTree {
      * precondition: this.search(k) != null
      */
     public boolean succPrefixXor(int k){
+        applyPendingTags();
         boolean xor = min.getValue();
         AVLNode node = successor(min);
         while (node != null && node.getKey() <= k) {
@@ -509,87 +2198,85 @@ public class AVLTree implements IBSTree {
     }
 
 
+    /**
+     * public void printTree()
+     * <p>
+     * prints the whole tree to System.out as indented text, one node per line.
+     * time complexity: O(size * depth)
+     */
     public void printTree() {
-        String[] visual = trepr(root);
-        for (String s : visual) {
-            System.out.println(s);
-        }
-    }
-
-    private static String[] trepr(AVLNode node) {
-        // Return a list of textual representations of the levels in t
-        if (node == null) return new String[]{"┴"};
-        String zis = node.toString();
-        String[] leftTxt;
-        String[] rightTxt;
-        if (!node.getLeft().isRealNode())
-            leftTxt = new String[]{"┴"};
-        else
-            leftTxt = trepr(node.getLeft());
-        if (!node.getRight().isRealNode())
-            rightTxt = new String[]{"┴"};
-        else
-            rightTxt = trepr(node.getRight());
-        return conc(leftTxt,zis,rightTxt);
-    }
-
-    private static String[] conc(String[] left, String root, String[] right) {
-        // Return a concatenation of textual represantations of
-        // a root node, its left node, and its right node
-        int lwid = left[left.length-1].length(); // levels in left
-        int rwid = right[right.length-1].length(); // levels in right
-        int rootwid = root.length();
-        String[] result = new String[2 + Math.max(left.length,right.length)];
-        result[0] = mul(" ",lwid+1) + root + mul(" ",rwid+1); // first row
-        int ls = leftspace(left[0]);
-        int rs = rightspace(right[0]);
-        result[1] = mul(" ",ls) + mul("",lwid-ls) + "/" + mul(" ",rootwid) + "\\" + mul("",rs) + mul(" ",rwid-rs); // second row
-        String row;
-        for (int i=0; i<Math.max(left.length,right.length); i++) {
-            // conect the i row in left to row i in right
-            row = "";
-
-            if (i < left.length) {
-                row += left[i];
-            }
-            else {
-                row += mul(" ",lwid);
-            }
-
-            row += mul(" ",rootwid+2);
-
-            if (i < right.length) {
-                row += right[i];
-            }
-            else {
-                row += mul(" ",rwid);
-            }
-
-            result[i+2] = row;
+        try {
+            render(System.out, Integer.MAX_VALUE, Integer.MAX_VALUE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        return result;
     }
 
-    private static int leftspace(String row) {
-        int i = row.length()-1;
-        while (row.charAt(i)==' ') {i--;}
-        return i+1;
-        // returns the index of where the second whitespace starts
+    /**
+     * public void render(Appendable out, int maxDepth, int maxNodes)
+     * <p>
+     * writes the tree to out as indented text, one node per line, without recursion.
+     * the children of nodes at depth maxDepth are elided, and the output is cut off after maxNodes nodes.
+     * tombstones left by a lazy delete are written as "(key, deleted)".
+     * time complexity: O(output)
+     */
+    public void render(Appendable out, int maxDepth, int maxNodes) throws IOException {
+        TreeRenderer.render(SHAPE, realOrNull(root), out, maxDepth, maxNodes);
+    }
+
+    /**
+     * public void writeDot(Appendable out)
+     * <p>
+     * writes the tree to out as a Graphviz DOT digraph, labeling every node with its key and info.
+     * tombstones left by a lazy delete are dashed.
+     * time complexity: O(size)
+     */
+    public void writeDot(Appendable out) throws IOException {
+        applyPendingTags();
+        TreeRenderer.writeDot(SHAPE, realOrNull(root), out);
     }
 
-    private static int rightspace(String row) {
-        int i = 0;
-        while (row.charAt(i)==' ') {i++;}
-        return i;
-        // returns the index of where the first whitespace ends
+    /**
+     * public void writeJson(Appendable out)
+     * <p>
+     * writes the tree to out as compact JSON: {"k":key,"v":info,"l":left,"r":right}, with null for absent children.
+     * a tombstone left by a lazy delete also has "d":true.
+     * time complexity: O(size)
+     */
+    public void writeJson(Appendable out) throws IOException {
+        applyPendingTags();
+        TreeRenderer.writeJson(SHAPE, realOrNull(root), out);
     }
 
-    private static String mul(String a, int t) {
-        if (t==0) {return "";}
-        return mul(a,t-1)+a;
-        // return new string of a+a...+a - t times
+    private static AVLNode realOrNull(AVLNode node) {
+        return node == null || !node.isRealNode() ? null : node;
     }
 
+    /**
+     * how TreeRenderer reads the nodes, virtual children are reported as absent
+     */
+    private static final TreeRenderer.Shape<AVLNode> SHAPE = new TreeRenderer.Shape<AVLNode>() {
+        public AVLNode left(AVLNode node) {
+            return realOrNull(node.getLeft());
+        }
+
+        public AVLNode right(AVLNode node) {
+            return realOrNull(node.getRight());
+        }
+
+        public int key(AVLNode node) {
+            return node.getKey();
+        }
+
+        public boolean value(AVLNode node) {
+            return node.getValue();
+        }
+
+        public boolean deleted(AVLNode node) {
+            return node.isTombstone();
+        }
+    };
+
     public enum Direction {
         Left, Right;
 
@@ -611,7 +2298,7 @@ public class AVLTree implements IBSTree {
      * All methods here are of time complexity O(1)
      */
     public class AVLNode {
-        private final int key;
+        private int key;
         private int height;
         private Boolean val;
         private boolean xorOfChildren;
@@ -620,6 +2307,9 @@ public class AVLTree implements IBSTree {
         private AVLNode right;
         private AVLNode next;
         private AVLNode prev;
+        private int count;
+        private byte tag;
+        private boolean tombstone;
 
         /**
          * Create leaf with given key and value
@@ -639,9 +2329,23 @@ public class AVLTree implements IBSTree {
                 setHeight(0);
                 this.val = val;
                 this.xorOfChildren = val;
+                this.count = 1;
             }
         }
 
+        /**
+         * Create a node with given key and value over the given subtrees, for bulk builds, which then set its
+         * height and aggregates
+         */
+        private AVLNode(int key, boolean val, AVLNode left, AVLNode right) {
+            this.key = key;
+            this.val = val;
+            setLeft(left);
+            setRight(right);
+            left.setParent(this);
+            right.setParent(this);
+        }
+
         /**
          * Create virtual node for a leaf
          */
@@ -651,6 +2355,25 @@ public class AVLTree implements IBSTree {
             return virt;
         }
 
+        /**
+         * Turns a recycled node back into a detached leaf with the given key and value,
+         * creating virtual children only for the sides it no longer owns.
+         */
+        private void reset(int key, boolean val) {
+            this.key = key;
+            this.val = val;
+            this.xorOfChildren = val;
+            this.height = 0;
+            this.count = 1;
+            this.tag = TAG_NONE;
+            this.tombstone = false;
+            this.parent = null;
+            this.next = null;
+            this.prev = null;
+            if (this.left == null) setLeft(virtualNode());
+            if (this.right == null) setRight(virtualNode());
+        }
+
 
         //returns node's key (for virtual node return -1)
         public int getKey() {
@@ -662,6 +2385,37 @@ public class AVLTree implements IBSTree {
             return this.val;
         }
 
+        private void setValue(boolean val) {
+            this.val = val;
+        }
+
+        // returns the number of real nodes in this subtree that are not tombstones (0 for virtual nodes)
+        public int getCount() {
+            return count;
+        }
+
+        // returns true if the item was deleted lazily and the node waits for a compaction
+        boolean isTombstone() {
+            return tombstone;
+        }
+
+        private void setTombstone(boolean tombstone) {
+            this.tombstone = tombstone;
+        }
+
+        private void setCount(int count) {
+            this.count = count;
+        }
+
+        // returns the lazy range tag still to be applied to the children's subtrees
+        private byte getTag() {
+            return tag;
+        }
+
+        private void setTag(byte tag) {
+            this.tag = tag;
+        }
+
         //sets left child
         public void setLeft(AVLNode node) {
             this.left = node;
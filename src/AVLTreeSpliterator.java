@@ -0,0 +1,196 @@
+import java.util.Comparator;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/**
+ * abstract class AVLTreeSpliterator
+ * <p>
+ * Walks the nodes of an AVLTree in key order over the next-thread, between a first node and an exclusive fence.
+ * Splitting cuts the range at the root of the part of the tree that lies inside it, so the two halves are the
+ * left subtree and the node with its right subtree, and repeated splits follow the tree's own balance.
+ * <p>
+ * Every spliterator knows its exact size: a split counts the prefix it cuts off from the subtree counts, by
+ * comparing the in-order positions of its first node and of the split node. So SIZED and SUBSIZED are reported
+ * by every spliterator. The tree must not be modified while a spliterator over it is in use.
+ */
+abstract class AVLTreeSpliterator {
+    /**
+     * the next node to visit, or the fence once the range is exhausted
+     */
+    protected AVLTree.AVLNode next;
+    /**
+     * the first node after the range, null for the end of the tree
+     */
+    protected final AVLTree.AVLNode fence;
+    /**
+     * the subtree to split on, all of its nodes that lie in [next, fence) are candidates for a split point
+     */
+    protected AVLTree.AVLNode top;
+    /**
+     * the exact number of nodes left in the range
+     */
+    protected long est;
+
+    protected AVLTreeSpliterator(AVLTree.AVLNode next, AVLTree.AVLNode fence, AVLTree.AVLNode top, long est) {
+        this.next = next;
+        this.fence = fence;
+        this.top = top;
+        this.est = est;
+    }
+
+    /**
+     * Finds the highest node of top's subtree that lies strictly after next and before the fence.
+     * below a tombstone only its left subtree is searched, so a range may stay unsplit after lazy deletes.
+     * time complexity: O(log(size))
+     * @return the split node, or null if the range can't be split
+     */
+    protected AVLTree.AVLNode splitNode() {
+        if (next == fence) return null;
+        AVLTree.AVLNode node = top;
+        while (node != null && node.isRealNode()) {
+            if (node.getKey() <= next.getKey()) node = node.getRight();
+            else if (fence != null && node.getKey() >= fence.getKey()) node = node.getLeft();
+            else if (node.isTombstone()) node = node.getLeft(); // not on the thread, so it can't be a bound
+            else return node;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of nodes in the range before the split node, which are cut off by a split there.
+     * time complexity: O(log(size))
+     */
+    protected long prefixSize(AVLTree.AVLNode split) {
+        return position(split) - position(next);
+    }
+
+    /**
+     * Moves this spliterator's start to the split node and returns the first node of the part cut off before it,
+     * which holds prefixSize nodes.
+     * time complexity: O(1)
+     */
+    protected AVLTree.AVLNode cutPrefix(AVLTree.AVLNode split, long prefixSize) {
+        AVLTree.AVLNode first = next;
+        next = split;
+        top = split.getRight();
+        est -= prefixSize;
+        return first;
+    }
+
+    /**
+     * Returns the number of items before the live node node in its tree, adding up the counts of the subtrees
+     * to its left on the way to the root.
+     * time complexity: O(log(size))
+     */
+    static long position(AVLTree.AVLNode node) {
+        long position = node.getLeft().getCount();
+        for (AVLTree.AVLNode child = node, parent = node.getParent(); parent != null;
+             child = parent, parent = parent.getParent()) {
+            if (parent.getRight() == child) position += parent.getLeft().getCount() + (parent.isTombstone() ? 0 : 1);
+        }
+        return position;
+    }
+
+    public long estimateSize() {
+        return est;
+    }
+
+    protected int baseCharacteristics() {
+        return Spliterator.ORDERED | Spliterator.SORTED | Spliterator.DISTINCT | Spliterator.NONNULL
+                | Spliterator.SIZED | Spliterator.SUBSIZED;
+    }
+
+    /**
+     * The keys of the tree, in ascending order.
+     */
+    static final class Keys extends AVLTreeSpliterator implements Spliterator.OfInt {
+
+        Keys(AVLTree.AVLNode next, AVLTree.AVLNode fence, AVLTree.AVLNode top, long est) {
+            super(next, fence, top, est);
+        }
+
+        @Override
+        public Keys trySplit() {
+            AVLTree.AVLNode split = splitNode();
+            if (split == null) return null;
+            long prefixSize = prefixSize(split);
+            return new Keys(cutPrefix(split, prefixSize), split, split.getLeft(), prefixSize);
+        }
+
+        @Override
+        public boolean tryAdvance(IntConsumer action) {
+            if (next == fence) return false;
+            int key = next.getKey();
+            next = next.getNext();
+            --est;
+            action.accept(key);
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(IntConsumer action) {
+            AVLTree.AVLNode node = next;
+            next = fence;
+            est = 0;
+            for (; node != fence; node = node.getNext()) action.accept(node.getKey());
+        }
+
+        @Override
+        public int characteristics() {
+            return baseCharacteristics();
+        }
+
+        @Override
+        public Comparator<? super Integer> getComparator() {
+            return null;
+        }
+    }
+
+    /**
+     * The real nodes of the tree, in ascending key order.
+     */
+    static final class Nodes extends AVLTreeSpliterator implements Spliterator<AVLTree.AVLNode> {
+        private static final Comparator<AVLTree.AVLNode> BY_KEY = Comparator.comparingInt(AVLTree.AVLNode::getKey);
+
+        Nodes(AVLTree.AVLNode next, AVLTree.AVLNode fence, AVLTree.AVLNode top, long est) {
+            super(next, fence, top, est);
+        }
+
+        @Override
+        public Nodes trySplit() {
+            AVLTree.AVLNode split = splitNode();
+            if (split == null) return null;
+            long prefixSize = prefixSize(split);
+            return new Nodes(cutPrefix(split, prefixSize), split, split.getLeft(), prefixSize);
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super AVLTree.AVLNode> action) {
+            if (next == fence) return false;
+            AVLTree.AVLNode node = next;
+            next = next.getNext();
+            --est;
+            action.accept(node);
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super AVLTree.AVLNode> action) {
+            AVLTree.AVLNode node = next;
+            next = fence;
+            est = 0;
+            for (; node != fence; node = node.getNext()) action.accept(node);
+        }
+
+        @Override
+        public int characteristics() {
+            return baseCharacteristics();
+        }
+
+        @Override
+        public Comparator<? super AVLTree.AVLNode> getComparator() {
+            return BY_KEY;
+        }
+    }
+}
@@ -1,5 +1,28 @@
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.PriorityQueue;
 import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
 import java.util.function.IntSupplier;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
@@ -11,6 +34,46 @@ public class AVLTreeTest {
         firstExperiment();
         System.out.println();
         secondExperiment();
+        System.out.println();
+        intervalExperiment();
+        System.out.println();
+        nodePoolExperiment();
+        System.out.println();
+        exportExperiment();
+        System.out.println();
+        deleteRangeExperiment();
+        System.out.println();
+        batchLookupExperiment();
+        System.out.println();
+        searchCacheExperiment();
+        System.out.println();
+        negativeFilterExperiment();
+        System.out.println();
+        lsmExperiment();
+        System.out.println();
+        combiningExperiment();
+        System.out.println();
+        splayExperiment();
+        System.out.println();
+        flipRangeExperiment();
+        System.out.println();
+        leanLayoutExperiment();
+        System.out.println();
+        frozenIndexExperiment();
+        System.out.println();
+        traceReplayExperiment();
+        System.out.println();
+        pollExperiment();
+        System.out.println();
+        navigableMapExperiment();
+        System.out.println();
+        changeLogExperiment();
+        System.out.println();
+        footprintExperiment();
+        System.out.println();
+        lazyDeleteExperiment();
+        System.out.println();
+        bulkBuildExperiment();
 
 
     }
@@ -98,6 +161,1322 @@ public class AVLTreeTest {
         return end - start;
     }
 
+    /**
+     * dense keys 0..n-1 in runs of about 64 equal values, inserted in random order, then 1% of them deleted.
+     * prints the runs the IntervalAVLTree keeps against the nodes of an AVLTree, then the average search and
+     * prefixXor time in nanoseconds of each. the two trees must give the same answers.
+     */
+    public static void intervalExperiment() {
+        for (int i = 1; i <= 5; i++) {
+            int n = i * 100000;
+            Random random = new Random(i);
+            boolean[] values = new boolean[n];
+            boolean value = false;
+            for (int k = 0; k < n; k++) {
+                if (random.nextInt(64) == 0) value = !value;
+                values[k] = value;
+            }
+            int[] order = IntStream.range(0, n).toArray();
+            shuffle(order, random);
+            AVLTree avl = new AVLTree();
+            IntervalAVLTree runs = new IntervalAVLTree();
+            for (int k : order) {
+                avl.insert(k, values[k]);
+                runs.insert(k, values[k]);
+            }
+            for (int j = 0; j < n / 100; j++) {
+                avl.delete(order[j]);
+                runs.delete(order[j]);
+            }
+            if (avl.size() != runs.size() || !Arrays.equals(avl.keysToArray(), runs.keysToArray())
+                    || !Arrays.equals(avl.infoToArray(), runs.infoToArray())) {
+                throw new IllegalStateException("the trees hold different items");
+            }
+
+            int[] queries = random.ints(n, 0, n).toArray();
+            int[] present = Arrays.stream(queries).filter(q -> avl.search(q) != null).toArray();
+            long checksum = 0;
+            long start = nanoTime();
+            for (int q : queries) if (avl.search(q) == Boolean.TRUE) checksum++;
+            double avlSearch = (nanoTime() - start) / (double) queries.length;
+            start = nanoTime();
+            for (int q : queries) if (runs.search(q) == Boolean.TRUE) checksum--;
+            double runSearch = (nanoTime() - start) / (double) queries.length;
+            start = nanoTime();
+            for (int q : present) if (avl.prefixXor(q)) checksum++;
+            double avlXor = (nanoTime() - start) / (double) present.length;
+            start = nanoTime();
+            for (int q : present) if (runs.prefixXor(q)) checksum--;
+            double runXor = (nanoTime() - start) / (double) present.length;
+            if (checksum != 0) throw new IllegalStateException("the trees answer differently");
+            for (int j = 0; j < 1000; j++) {
+                int q = queries[j];
+                if (!Objects.equals(avl.search(q), runs.search(q))
+                        || avl.search(q) != null && avl.prefixXor(q) != runs.prefixXor(q)) {
+                    throw new IllegalStateException("the trees answer differently for " + q);
+                }
+            }
+            System.out.printf("i=%d | %d | %d | %f | %f | %f | %f\n", i, runs.runCount(), avl.size(), avlSearch,
+                    runSearch, avlXor, runXor);
+        }
+    }
+
+    /**
+     * delete/insert churn on a tree of fixed size, with and without the node pool.
+     * prints the young GCs per second of churn and the average and p99 insert latency in nanoseconds.
+     */
+    public static void nodePoolExperiment() {
+        for (int i = 1; i <= 5; i++) {
+            int n = i * 100000;
+            double[] pooled = measureChurn(new AVLTree(1024), n);
+            double[] plain = measureChurn(new AVLTree(), n);
+            System.out.printf("i=%d | %f | %f | %f | %f | %f | %f\n", i,
+                    plain[0], plain[1], plain[2], pooled[0], pooled[1], pooled[2]);
+        }
+    }
+
+    private static double[] measureChurn(AVLTree t, int n) {
+        Random random = new Random(n);
+        int[] keys = new int[n];
+        for (int j = 0; j < n; j++) {
+            keys[j] = random.nextInt(Integer.MAX_VALUE);
+            t.insert(keys[j], true);
+        }
+        long[] latencies = new long[10 * n];
+        long gcsBefore = youngGcCount();
+        long start = nanoTime();
+        for (int j = 0; j < latencies.length; j++) {
+            int slot = random.nextInt(n);
+            t.delete(keys[slot]);
+            keys[slot] = random.nextInt(Integer.MAX_VALUE);
+            latencies[j] = timeInsert(t, keys[slot]);
+        }
+        double seconds = (nanoTime() - start) / 1e9;
+        long gcs = youngGcCount() - gcsBefore;
+        Arrays.sort(latencies);
+        return new double[]{gcs / seconds, Arrays.stream(latencies).average().getAsDouble(),
+                latencies[(int) (latencies.length * 0.99)]};
+    }
+
+    /**
+     * exports a random tree through buffers of 1, 7, 13 and 4096 items, in both byte orders for the entries and
+     * from the first key and from a key in the middle, and checks every export against keysToArray and
+     * infoToArray. prints the time in milliseconds of keysToArray, of exportKeys and of exportEntries through
+     * 4096 item buffers.
+     */
+    public static void exportExperiment() {
+        for (int i = 1; i <= 5; i++) {
+            AVLTree t = randomAVLTree(i * 100000);
+            int[] keys = t.keysToArray();
+            for (int j = 0; j < keys.length; j += 3) t.replace(keys[j], false);
+            boolean[] info = t.infoToArray();
+            int middle = keys.length / 3;
+            for (int items : new int[]{1, 7, 13, 4096}) {
+                for (int from : new int[]{0, middle}) {
+                    int[] expectedKeys = Arrays.copyOfRange(keys, from, keys.length);
+                    boolean[] expectedInfo = Arrays.copyOfRange(info, from, info.length);
+                    if (!Arrays.equals(exportAllKeys(t, items, keys[from]), expectedKeys)) {
+                        throw new IllegalStateException("exportKeys differs with " + items + " item buffers");
+                    }
+                    for (ByteOrder order : new ByteOrder[]{ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+                        // 3 bytes more than whole entries, which must be left unused
+                        ByteBuffer buffer = ByteBuffer.allocate(items * AVLTree.ENTRY_BYTES + 3).order(order);
+                        int[] exportedKeys = new int[expectedKeys.length];
+                        boolean[] exportedInfo = new boolean[expectedInfo.length];
+                        int count = 0;
+                        int resume = keys[from];
+                        while (resume >= 0) {
+                            buffer.clear();
+                            resume = t.exportEntries(buffer, resume);
+                            buffer.flip();
+                            if (buffer.remaining() % AVLTree.ENTRY_BYTES != 0) {
+                                throw new IllegalStateException("exportEntries wrote part of an entry");
+                            }
+                            while (buffer.hasRemaining()) {
+                                exportedKeys[count] = buffer.getInt();
+                                exportedInfo[count++] = buffer.get() == 1;
+                            }
+                        }
+                        if (count != expectedKeys.length || !Arrays.equals(exportedKeys, expectedKeys)
+                                || !Arrays.equals(exportedInfo, expectedInfo)) {
+                            throw new IllegalStateException("exportEntries differs with " + items + " item buffers");
+                        }
+                    }
+                }
+            }
+
+            long start = nanoTime();
+            int[] copied = t.keysToArray();
+            double copyMs = (nanoTime() - start) / 1e6;
+            start = nanoTime();
+            int[] exported = exportAllKeys(t, 4096, 0);
+            double keysMs = (nanoTime() - start) / 1e6;
+            ByteBuffer entries = ByteBuffer.allocateDirect(4096 * AVLTree.ENTRY_BYTES);
+            long checksum = 0;
+            start = nanoTime();
+            for (int resume = 0; resume >= 0; ) {
+                entries.clear();
+                resume = t.exportEntries(entries, resume);
+                checksum += entries.position();
+            }
+            double entriesMs = (nanoTime() - start) / 1e6;
+            if (copied.length != exported.length || checksum != (long) keys.length * AVLTree.ENTRY_BYTES) {
+                throw new IllegalStateException("lost a key");
+            }
+            System.out.printf("i=%d | %f | %f | %f\n", i, copyMs, keysMs, entriesMs);
+        }
+    }
+
+    /**
+     * exports the keys from fromKey on through a buffer of items keys, calling exportKeys until it is done
+     */
+    private static int[] exportAllKeys(AVLTree t, int items, int fromKey) {
+        IntBuffer buffer = IntBuffer.allocate(items);
+        int[] keys = new int[t.size()];
+        int count = 0;
+        for (int resume = fromKey; resume >= 0; ) {
+            buffer.clear();
+            resume = t.exportKeys(buffer, resume);
+            buffer.flip();
+            buffer.get(keys, count, buffer.remaining());
+            count += buffer.position();
+        }
+        return Arrays.copyOf(keys, count);
+    }
+
+    /**
+     * random ranges deleted from a random tree with deleteRange and from a copy with one delete per key, which
+     * must return the same counts and keep the same keysToArray, infoToArray, size and prefixXor. a copy with a
+     * node pool and one without get the same ranges, followed by as many random inserts to reuse the recycled
+     * nodes, and must keep the same items too. prints the time in milliseconds of all deleteRange calls and of all per-key deletes, and the
+     * share of the inserts into the pooled tree that were served from the pool.
+     */
+    public static void deleteRangeExperiment() {
+        for (int i = 1; i <= 5; i++) {
+            int n = i * 100000;
+            Random random = new Random(i);
+            AVLTree ranged = new AVLTree();
+            AVLTree perKey = new AVLTree();
+            AVLTree pooled = new AVLTree(n);
+            AVLTree unpooled = new AVLTree();
+            for (int j = 0; j < n; j++) {
+                int k = random.nextInt(4 * n);
+                boolean info = random.nextBoolean();
+                ranged.insert(k, info);
+                perKey.insert(k, info);
+                pooled.insert(k, info);
+                unpooled.insert(k, info);
+            }
+            long rangedNanos = 0;
+            long perKeyNanos = 0;
+            long inserts = 0;
+            long reused = 0;
+            for (int r = 0; r < 200; r++) {
+                int lo = random.nextInt(4 * n);
+                int hi = lo + random.nextInt(n / 50);
+                int[] keys = perKey.keysToArray();
+                int from = Arrays.binarySearch(keys, lo);
+                from = from >= 0 ? from : -from - 1;
+                int to = Arrays.binarySearch(keys, hi);
+                to = to >= 0 ? to + 1 : -to - 1;
+                long start = nanoTime();
+                int removed = ranged.deleteRange(lo, hi);
+                rangedNanos += nanoTime() - start;
+                start = nanoTime();
+                for (int j = from; j < to; j++) perKey.delete(keys[j]);
+                perKeyNanos += nanoTime() - start;
+                if (removed != to - from || pooled.deleteRange(lo, hi) != unpooled.deleteRange(lo, hi)) {
+                    throw new IllegalStateException("deleteRange removed " + removed + " items, not " + (to - from));
+                }
+                for (int j = 0; j < removed; j++, inserts++) {
+                    int k = random.nextInt(4 * n);
+                    int pool = pooled.nodePoolSize();
+                    pooled.insert(k, true);
+                    unpooled.insert(k, true);
+                    if (pooled.nodePoolSize() < pool) reused++;
+                }
+                if (r % 20 == 0) {
+                    checkSameItems(ranged, perKey, random);
+                    checkSameItems(pooled, unpooled, random);
+                }
+            }
+            checkSameItems(ranged, perKey, random);
+            checkSameItems(pooled, unpooled, random);
+            System.out.printf("i=%d | %f | %f | %f\n", i, rangedNanos / 1e6, perKeyNanos / 1e6,
+                    reused / (double) inserts);
+        }
+    }
+
+    private static void checkSameItems(AVLTree t, AVLTree other, Random random) {
+        checkSameItems(t, other.size(), other.keysToArray(), other.infoToArray(), other::prefixXor, random);
+    }
+
+    /**
+     * checks that another structure, given by its size, keysToArray, infoToArray and prefixXor, holds the same
+     * items as t, comparing prefixXor at 1000 random keys of t
+     */
+    private static void checkSameItems(AVLTree t, int otherSize, int[] otherKeys, boolean[] otherInfo,
+                                       IntPredicate otherPrefixXor, Random random) {
+        int[] keys = t.keysToArray();
+        if (t.size() != otherSize || !Arrays.equals(keys, otherKeys) || !Arrays.equals(t.infoToArray(), otherInfo)) {
+            throw new IllegalStateException("the trees hold different items");
+        }
+        for (int j = 0; j < 1000 && keys.length > 0; j++) {
+            int k = keys[random.nextInt(keys.length)];
+            if (t.prefixXor(k) != otherPrefixXor.test(k)) throw new IllegalStateException("prefixXor differs at " + k);
+        }
+    }
+
+    /**
+     * shuffles a in place (Fisher-Yates)
+     */
+    private static void shuffle(int[] a, Random random) {
+        for (int j = a.length - 1; j > 0; j--) {
+            int other = random.nextInt(j + 1);
+            int swap = a[j];
+            a[j] = a[other];
+            a[other] = swap;
+        }
+    }
+
+    /**
+     * random trees with random infos and a few flipped ranges, queried by unsorted batches of keys of which
+     * half are in the tree. searchAll and prefixXorAll are checked against search, against prefixXor for the
+     * keys in the tree and against prefix xors of infoToArray for all keys, on unsorted, sorted and
+     * duplicated queries and on batches of 0, 1 and 3 keys. prints the average time per key in nanoseconds of
+     * search, searchAll, prefixXor and prefixXorAll.
+     */
+    public static void batchLookupExperiment() {
+        for (int i = 1; i <= 5; i++) {
+            int n = i * 100000;
+            Random random = new Random(i);
+            AVLTree t = new AVLTree();
+            for (int j = 0; j < n; j++) t.insert(random.nextInt(4 * n), random.nextBoolean());
+            for (int j = 0; j < 10; j++) {
+                int lo = random.nextInt(4 * n);
+                t.flipRange(lo, lo + random.nextInt(n));
+            }
+            int[] keys = t.keysToArray();
+            int[] queries = new int[n];
+            for (int j = 0; j < n; j++) {
+                queries[j] = j % 2 == 0 ? keys[random.nextInt(keys.length)] : random.nextInt(4 * n);
+            }
+            int[] sorted = queries.clone();
+            Arrays.sort(sorted);
+            int[] duplicated = new int[n];
+            for (int j = 0; j < n; j++) duplicated[j] = queries[j / 4];
+            for (int[] batch : new int[][]{queries, sorted, duplicated, {}, {queries[0]}, {keys[0], -1, 4 * n}}) {
+                checkBatch(t, batch);
+            }
+
+            int[] present = Arrays.stream(queries).filter(q -> t.search(q) != null).toArray();
+            byte[] found = new byte[n];
+            boolean[] xors = new boolean[n];
+            long checksum = 0;
+            long start = nanoTime();
+            for (int q : queries) if (t.search(q) == Boolean.TRUE) checksum++;
+            double searchTime = (nanoTime() - start) / (double) n;
+            start = nanoTime();
+            t.searchAll(queries, found);
+            double searchAllTime = (nanoTime() - start) / (double) n;
+            for (byte answer : found) if (answer == 1) checksum--;
+            start = nanoTime();
+            for (int q : present) if (t.prefixXor(q)) checksum++;
+            double xorTime = (nanoTime() - start) / (double) present.length;
+            start = nanoTime();
+            t.prefixXorAll(present, xors);
+            double xorAllTime = (nanoTime() - start) / (double) present.length;
+            for (int j = 0; j < present.length; j++) if (xors[j]) checksum--;
+            if (checksum != 0) throw new IllegalStateException("the batched answers differ");
+            System.out.printf("i=%d | %f | %f | %f | %f\n", i, searchTime, searchAllTime, xorTime, xorAllTime);
+        }
+    }
+
+    /**
+     * checks searchAll and prefixXorAll of batch against search, prefixXor and the prefix xors of infoToArray
+     */
+    private static void checkBatch(AVLTree t, int[] batch) {
+        int[] keys = t.keysToArray();
+        boolean[] info = t.infoToArray();
+        boolean[] prefix = new boolean[keys.length + 1];
+        for (int j = 0; j < keys.length; j++) prefix[j + 1] = prefix[j] ^ info[j];
+        byte[] found = new byte[batch.length];
+        boolean[] xors = new boolean[batch.length];
+        t.searchAll(batch, found);
+        t.prefixXorAll(batch, xors);
+        for (int j = 0; j < batch.length; j++) {
+            int q = batch[j];
+            Boolean value = t.search(q);
+            byte expected = value == null ? AVLTree.ABSENT : value ? (byte) 1 : (byte) 0;
+            int index = Arrays.binarySearch(keys, q);
+            boolean expectedXor = prefix[index >= 0 ? index + 1 : -index - 1];
+            if (found[j] != expected || xors[j] != expectedXor || value != null && t.prefixXor(q) != expectedXor) {
+                throw new IllegalStateException("the batched answers differ for " + q);
+            }
+        }
+    }
+
+    /**
+     * searches with zipfian (s = 1) and uniform key popularity, with and without a 4096 slot search cache.
+     * prints the average search time in nanoseconds: zipf plain, zipf cached, uniform plain, uniform cached,
+     * followed by the hit rate of the cache on the zipfian queries.
+     */
+    public static void searchCacheExperiment() {
+        for (int i = 1; i <= 5; i++) {
+            int n = i * 100000;
+            AVLTree t = randomAVLTree(n);
+            int[] keys = t.keysToArray();
+            Random random = new Random(i);
+            shuffle(keys, random);
+            int[] zipf = IntStream.generate(new ZipfSequence(keys.length, random)).limit(2000000).map(r -> keys[r]).toArray();
+            int[] uniform = random.ints(2000000, 0, keys.length).map(r -> keys[r]).toArray();
+
+            double zipfPlain = measureSearches(t, zipf);
+            double uniformPlain = measureSearches(t, uniform);
+            t.enableSearchCache(4096);
+            double zipfCached = measureSearches(t, zipf);
+            double hitRate = t.searchCacheHits() / (double) (t.searchCacheHits() + t.searchCacheMisses());
+            t.enableSearchCache(4096);
+            double uniformCached = measureSearches(t, uniform);
+            System.out.printf("i=%d | %f | %f | %f | %f | %f\n", i, zipfPlain, zipfCached, uniformPlain, uniformCached, hitRate);
+        }
+    }
+
+    /**
+     * searches where 70% of the keys are not in the tree, with and without the negative filter.
+     * prints the average insert time while building the tree, plain and filtered, the average search time,
+     * plain and filtered, the fraction of searches the filter answered and the filter's size in bytes per key.
+     */
+    public static void negativeFilterExperiment() {
+        for (int i = 1; i <= 5; i++) {
+            int n = i * 100000;
+            Random random = new Random(i);
+            int[] keys = random.ints(n, 0, Integer.MAX_VALUE).toArray();
+            AVLTree plain = new AVLTree();
+            AVLTree filtered = new AVLTree();
+            filtered.enableNegativeFilter();
+            double insertPlain = Arrays.stream(keys).mapToLong(k -> timeInsert(plain, k)).average().getAsDouble();
+            double insertFiltered = Arrays.stream(keys).mapToLong(k -> timeInsert(filtered, k)).average().getAsDouble();
+
+            int[] queries = new int[2000000];
+            for (int j = 0; j < queries.length; j++) {
+                queries[j] = random.nextInt(10) < 3 ? keys[random.nextInt(n)] : random.nextInt(Integer.MAX_VALUE);
+            }
+            double searchPlain = measureMixedSearches(plain::search, queries);
+            double searchFiltered = measureMixedSearches(filtered::search, queries);
+            double skipped = filtered.negativeFilterSkips() / (2.0 * queries.length);
+            System.out.printf("i=%d | %f | %f | %f | %f | %f | %f\n", i, insertPlain, insertFiltered,
+                    searchPlain, searchFiltered, skipped, filtered.negativeFilterBytes() / (double) filtered.size());
+        }
+    }
+
+    /**
+     * n random puts (60%), removes (20%) and searches (20%) on an LsmIntBoolIndex with a 4096 entry memtable
+     * compacting at 4 runs on the common pool, mirrored on an AVLTree. every 10000 operations the index is
+     * flushed and checked against the tree: keysToArray, infoToArray, min, max and prefixXor. a compaction
+     * the executor rejects must not keep later ones from running. prints the average time in nanoseconds of a
+     * put and of a search on the index and on the tree, and the runs left at the end.
+     */
+    public static void lsmExperiment() {
+        LsmIntBoolIndex rejected = new LsmIntBoolIndex(1, 2, new Executor() {
+            private boolean rejectedOnce;
+
+            public void execute(Runnable task) {
+                if (!rejectedOnce) {
+                    rejectedOnce = true;
+                    throw new RejectedExecutionException();
+                }
+                task.run();
+            }
+        });
+        rejected.put(1, true);
+        try {
+            rejected.put(2, true);
+            throw new IllegalStateException("the compaction was not handed to the executor");
+        } catch (RejectedExecutionException e) {
+            rejected.put(3, true);
+        }
+        if (rejected.runCount() != 1) throw new IllegalStateException("a rejected compaction blocked later ones");
+
+        for (int i = 1; i <= 5; i++) {
+            int n = i * 100000;
+            Random random = new Random(i);
+            LsmIntBoolIndex index = new LsmIntBoolIndex(4096, 4, ForkJoinPool.commonPool());
+            AVLTree tree = new AVLTree();
+            long[] nanos = new long[4];
+            int[] counts = new int[2];
+            for (int j = 1; j <= n; j++) {
+                int k = random.nextInt(n);
+                int op = random.nextInt(10);
+                if (op < 6) {
+                    boolean v = random.nextBoolean();
+                    long start = nanoTime();
+                    index.put(k, v);
+                    nanos[0] += nanoTime() - start;
+                    start = nanoTime();
+                    tree.put(k, v);
+                    nanos[1] += nanoTime() - start;
+                    counts[0]++;
+                } else if (op < 8) {
+                    index.remove(k);
+                    tree.delete(k);
+                } else {
+                    long start = nanoTime();
+                    Boolean fromIndex = index.search(k);
+                    nanos[2] += nanoTime() - start;
+                    start = nanoTime();
+                    Boolean fromTree = tree.search(k);
+                    nanos[3] += nanoTime() - start;
+                    if (!Objects.equals(fromIndex, fromTree)) throw new IllegalStateException("search differs at " + k);
+                    counts[1]++;
+                }
+                if (j % 10000 == 0) {
+                    index.flush();
+                    checkIndex(index, tree, random);
+                }
+            }
+            checkIndex(index, tree, random);
+            System.out.printf("i=%d | %f | %f | %f | %f | %d\n", i, nanos[0] / (double) counts[0],
+                    nanos[1] / (double) counts[0], nanos[2] / (double) counts[1], nanos[3] / (double) counts[1],
+                    index.runCount());
+        }
+    }
+
+    private static void checkIndex(LsmIntBoolIndex index, AVLTree tree, Random random) {
+        int[] keys = tree.keysToArray();
+        if (!Arrays.equals(index.keysToArray(), keys) || !Arrays.equals(index.infoToArray(), tree.infoToArray())
+                || !Objects.equals(index.min(), tree.min()) || !Objects.equals(index.max(), tree.max())) {
+            throw new IllegalStateException("the index holds different items");
+        }
+        for (int j = 0; j < 100 && keys.length > 0; j++) {
+            int k = keys[random.nextInt(keys.length)];
+            if (index.prefixXor(k) != tree.prefixXor(k)) throw new IllegalStateException("prefixXor differs at " + k);
+        }
+    }
+
+    /**
+     * threads doing 50% search, 25% insert and 25% delete on a shared tree of about 100000 keys,
+     * through a ReentrantLock wrapper and through CombiningAVLTree, on platform threads and, on Java 21 and
+     * later, on virtual threads.
+     * prints the thread count and the throughput of each in million operations per second: locked and
+     * combining on platform threads, then locked and combining on virtual threads.
+     * before measuring, checkCombining stresses CombiningAVLTree with one slot and with a few.
+     */
+    public static void combiningExperiment() {
+        checkCombining(64, 1);
+        checkCombining(64, 4);
+        ThreadFactory virtual = virtualThreadFactory();
+        if (virtual == null) System.out.println("virtual threads need Java 21, measuring platform threads only");
+        for (int threads : new int[]{1, 4, 16, 64}) {
+            double locked = measureConcurrent(new LockedAVLTree(), threads, Thread::new);
+            double combining = measureConcurrent(new CombiningAVLTree(), threads, Thread::new);
+            if (virtual == null) {
+                System.out.printf("threads=%d | %f | %f\n", threads, locked, combining);
+            } else {
+                double virtualLocked = measureConcurrent(new LockedAVLTree(), threads, virtual);
+                double virtualCombining = measureConcurrent(new CombiningAVLTree(), threads, virtual);
+                System.out.printf("threads=%d | %f | %f | %f | %f\n", threads, locked, combining, virtualLocked,
+                        virtualCombining);
+            }
+        }
+    }
+
+    /**
+     * threads that each insert, search and delete their own keys on a CombiningAVLTree whose tree throws on
+     * inserting every seventh key. every thread checks the answers to its operations, and that it gets back the
+     * exceptions of its own keys and no others. afterwards the tree must hold the same items as a tree given the
+     * same operations on one thread.
+     */
+    private static void checkCombining(int threads, int slots) {
+        AVLTree failing = new AVLTree() {
+            @Override
+            public int insert(int k, boolean i) {
+                if (k % 7 == 0) throw new IllegalArgumentException("rejected " + k);
+                return super.insert(k, i);
+            }
+        };
+        CombiningAVLTree combining = new CombiningAVLTree(failing, slots);
+        int keysPerThread = 3000;
+        AtomicReference<Throwable> firstFailure = new AtomicReference<>();
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int base = t * keysPerThread;
+            workers[t] = new Thread(() -> {
+                try {
+                    for (int k = base; k < base + keysPerThread; k++) {
+                        boolean info = (k & 1) == 0;
+                        boolean rejected = k % 7 == 0;
+                        try {
+                            if (combining.insert(k, info) < 1 || rejected) {
+                                throw new IllegalStateException("wrong answer to inserting " + k);
+                            }
+                        } catch (IllegalArgumentException e) {
+                            if (!rejected || !e.getMessage().equals("rejected " + k)) {
+                                throw new IllegalStateException("got the exception of another insert", e);
+                            }
+                        }
+                        if (!Objects.equals(combining.search(k), rejected ? null : info)) {
+                            throw new IllegalStateException("wrong answer to searching " + k);
+                        }
+                        if (k % 3 == 0 && (combining.delete(k) < 1) != rejected) {
+                            throw new IllegalStateException("wrong answer to deleting " + k);
+                        }
+                    }
+                } catch (Throwable e) {
+                    firstFailure.compareAndSet(null, e);
+                }
+            });
+        }
+        for (Thread worker : workers) worker.start();
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        if (firstFailure.get() != null) throw new IllegalStateException("combining failed", firstFailure.get());
+        AVLTree expected = new AVLTree();
+        for (int k = 0; k < threads * keysPerThread; k++) {
+            if (k % 7 != 0 && k % 3 != 0) expected.insert(k, (k & 1) == 0);
+        }
+        if (combining.size() != expected.size()) throw new IllegalStateException("combining lost an operation");
+        checkSameItems(failing, expected, new Random(slots));
+    }
+
+    /**
+     * a factory of virtual threads, or null before Java 21, which has none. looked up reflectively since the
+     * code targets Java 8
+     */
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static double measureConcurrent(IBSTree t, int threads, ThreadFactory factory) {
+        for (int k = 0; k < 200000; k += 2) t.insert(k, true);
+        int opsPerThread = 1000000 / threads;
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = factory.newThread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int j = 0; j < opsPerThread; j++) {
+                    int key = random.nextInt(200000);
+                    int op = random.nextInt(4);
+                    if (op < 2) t.search(key);
+                    else if (op == 2) t.insert(key, true);
+                    else t.delete(key);
+                }
+            });
+        }
+        long start = nanoTime();
+        for (Thread worker : workers) worker.start();
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return (double) opsPerThread * threads / ((nanoTime() - start) / 1000.0);
+    }
+
+    /**
+     * an AVLTree behind a single ReentrantLock
+     */
+    static class LockedAVLTree implements IBSTree {
+        private final AVLTree tree = new AVLTree();
+        private final ReentrantLock lock = new ReentrantLock();
+
+        public int insert(int k, boolean b) {
+            lock.lock();
+            try {
+                return tree.insert(k, b);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public Boolean search(int key) {
+            lock.lock();
+            try {
+                return tree.search(key);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public int delete(int key) {
+            lock.lock();
+            try {
+                return tree.delete(key);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public void printTree() {
+            lock.lock();
+            try {
+                tree.printTree();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static double measureMixedSearches(IntFunction<Boolean> search, int[] queries) {
+        long start = 0;
+        int found = 0;
+        for (int pass = 0; pass < 2; pass++) { // the first pass warms up
+            start = nanoTime();
+            for (int q : queries) {
+                if (search.apply(q) != null) found++;
+            }
+        }
+        long end = nanoTime();
+        if (found == 0) throw new IllegalStateException("found nothing");
+        return (end - start) / (double) queries.length;
+    }
+
+    /**
+     * zipfian (s = 1) and uniform searches on an AVLTree and on a SplayTree holding the same keys.
+     * prints the average search time in nanoseconds: zipf AVL, zipf splay, uniform AVL, uniform splay.
+     * the splay tree must hold the same items as the AVLTree after the inserts, and again after the searches
+     * and a tenth of the keys deleted from both.
+     */
+    public static void splayExperiment() {
+        for (int i = 1; i <= 5; i++) {
+            int n = i * 100000;
+            Random random = new Random(i);
+            int[] keys = random.ints(n, 0, Integer.MAX_VALUE).distinct().toArray();
+            AVLTree avl = new AVLTree();
+            SplayTree splay = new SplayTree();
+            for (int key : keys) {
+                avl.insert(key, (key & 1) == 0);
+                splay.insert(key, (key & 1) == 0);
+            }
+            checkSameItems(avl, splay.size(), splay.keysToArray(), splay.infoToArray(), splay::prefixXor, random);
+            int[] zipf = IntStream.generate(new ZipfSequence(keys.length, random)).limit(2000000).map(r -> keys[r]).toArray();
+            int[] uniform = random.ints(2000000, 0, keys.length).map(r -> keys[r]).toArray();
+            System.out.printf("i=%d | %f | %f | %f | %f\n", i, measureSearches(avl, zipf), measureSearches(splay, zipf),
+                    measureSearches(avl, uniform), measureSearches(splay, uniform));
+            for (int j = 0; j < keys.length / 10; j++) {
+                avl.delete(keys[j]);
+                splay.delete(keys[j]);
+            }
+            checkSameItems(avl, splay.size(), splay.keysToArray(), splay.infoToArray(), splay::prefixXor, random);
+        }
+    }
+
+    /**
+     * inverting the info of ranges of n/10 consecutive keys in a tree of n keys, by flipRange and by a delete
+     * and insert per key. prints the average time per range in nanoseconds for both, then the average search
+     * time in nanoseconds on a tree with no tags and on the tree after 1000 lazy flips.
+     */
+    public static void flipRangeExperiment() {
+        for (int i = 1; i <= 5; i++) {
+            int n = i * 100000;
+            int width = n / 10;
+            AVLTree lazy = new AVLTree();
+            AVLTree eager = new AVLTree();
+            for (int k = 0; k < n; k++) {
+                lazy.insert(k, true);
+                eager.insert(k, true);
+            }
+            Random random = new Random(i);
+            int[] searches = random.ints(2000000, 0, n).toArray();
+            double searchPlain = measureSearches(lazy, searches);
+
+            long start = nanoTime();
+            for (int j = 0; j < 1000; j++) {
+                int lo = random.nextInt(n - width);
+                lazy.flipRange(lo, lo + width - 1);
+            }
+            double flipLazy = (nanoTime() - start) / 1000.0;
+            start = nanoTime();
+            for (int j = 0; j < 10; j++) {
+                int lo = random.nextInt(n - width);
+                for (int k = lo; k < lo + width; k++) {
+                    boolean value = eager.search(k);
+                    eager.delete(k);
+                    eager.insert(k, !value);
+                }
+            }
+            double flipEager = (nanoTime() - start) / 10.0;
+            System.out.printf("i=%d | %f | %f | %f | %f\n", i, flipLazy, flipEager, searchPlain,
+                    measureSearches(lazy, searches));
+        }
+    }
+
+    /**
+     * the same random keys in an AVLTree and in a LeanAVLTree.
+     * prints the retained heap bytes per key, the average insert time and the average search time in nanoseconds,
+     * first for AVLTree and then for LeanAVLTree. the two trees must hold the same items after the inserts, and
+     * again after a tenth of the keys are deleted from both.
+     */
+    public static void leanLayoutExperiment() {
+        for (int i = 1; i <= 5; i++) {
+            int n = i * 100000;
+            int[] keys = new Random(i).ints(n, 0, Integer.MAX_VALUE).toArray();
+            int[] queries = new Random(-i).ints(2000000, 0, n).map(r -> keys[r]).toArray();
+            AVLTree threadedTree = new AVLTree();
+            LeanAVLTree leanTree = new LeanAVLTree();
+            double[] threaded = measureLayout(threadedTree, keys, queries);
+            double[] lean = measureLayout(leanTree, keys, queries);
+            Random random = new Random(i);
+            checkSameItems(threadedTree, leanTree.size(), leanTree.keysToArray(), leanTree.infoToArray(),
+                    leanTree::prefixXor, random);
+            for (int j = 0; j < n / 10; j++) {
+                threadedTree.delete(keys[j]);
+                leanTree.delete(keys[j]);
+            }
+            checkSameItems(threadedTree, leanTree.size(), leanTree.keysToArray(), leanTree.infoToArray(),
+                    leanTree::prefixXor, random);
+            System.out.printf("i=%d | %f | %f | %f | %f | %f | %f\n", i,
+                    threaded[0], threaded[1], threaded[2], lean[0], lean[1], lean[2]);
+        }
+    }
+
+    /**
+     * inserts keys into t, each with the info whether it is even, then searches queries.
+     * returns the heap bytes per key, and the average insert and search time in nanoseconds
+     */
+    private static double[] measureLayout(IBSTree t, int[] keys, int[] queries) {
+        long before = usedHeap();
+        long start = nanoTime();
+        for (int key : keys) t.insert(key, (key & 1) == 0);
+        double insert = (nanoTime() - start) / (double) keys.length;
+        double bytes = (usedHeap() - before) / (double) keys.length;
+        return new double[]{bytes, insert, measureSearches(t, queries)};
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * searches for random keys, half of them in the tree, on an AVLTree of 1M to 100M keys and on a FrozenAVLIndex
+     * built from it after a tenth of the keys were deleted. the index must hold the same items as the tree and
+     * answer the same searches. prints the average search time in nanoseconds for both.
+     * the tree takes over 100 bytes per key, so 100M keys need more than 10GB of heap. a size whose estimated
+     * footprint, taken from the 1M tree and index, doesn't fit in the free heap (see -Xmx) is skipped with a
+     * line saying so, instead of running out of memory.
+     */
+    public static void frozenIndexExperiment() {
+        double bytesPerKey = 0;
+        for (int millions : new int[]{1, 2, 4, 8, 16, 32, 64, 100}) {
+            int n = millions * 1000000;
+            long free = Runtime.getRuntime().maxMemory() - usedHeap();
+            // the tree, the index, the key arrays and the queries, with a quarter to spare
+            if (bytesPerKey * n * 1.25 > free) {
+                System.out.printf("n=%dM | skipped, needs about %d MB of heap, %d MB free\n", millions,
+                        (long) (bytesPerKey * n * 1.25) >> 20, free >> 20);
+                continue;
+            }
+            Random random = new Random(millions);
+            int[] keys = random.ints(n, 0, Integer.MAX_VALUE).toArray();
+            AVLTree tree = new AVLTree();
+            for (int key : keys) tree.insert(key, (key & 1) == 0);
+            for (int j = 0; j < n / 10; j++) tree.delete(keys[j]);
+            FrozenAVLIndex frozen = new FrozenAVLIndex(tree);
+            checkSameItems(tree, frozen.size(), frozen.keysToArray(), frozen.infoToArray(), frozen::prefixXor, random);
+            int[] present = tree.keysToArray();
+            keys = null;
+            int[] queries = new int[2000000];
+            for (int j = 0; j < queries.length; j++) {
+                queries[j] = random.nextBoolean() ? present[random.nextInt(present.length)] : random.nextInt(Integer.MAX_VALUE);
+            }
+            for (int j = 0; j < 10000; j++) {
+                if (!Objects.equals(tree.search(queries[j]), frozen.search(queries[j]))) {
+                    throw new IllegalStateException("search differs at " + queries[j]);
+                }
+            }
+            if (bytesPerKey == 0) {
+                bytesPerKey = (tree.estimateRetainedBytes() + frozen.estimateRetainedBytes()) / (double) n + 4 + 4
+                        + 8.0 * queries.length / n;
+            }
+            System.out.printf("n=%dM | %f | %f\n", millions, measureMixedSearches(tree::search, queries),
+                    measureMixedSearches(frozen::search, queries));
+        }
+    }
+
+    /**
+     * replays the same recorded traces against AVLTree, BSTree, SplayTree and LeanAVLTree.
+     * BSTree's delete can leave cycles behind, so it only replays the traces without deletes.
+     * prints the trace, the tree, the throughput in million operations per second, the p50, p99 and p99.9
+     * latencies in nanoseconds, the allocated bytes per operation and the number of unsupported operations.
+     */
+    public static void traceReplayExperiment() {
+        String[] names = {"sequential", "optimal", "random", "zipf", "window"};
+        for (int t = 0; t < names.length; t++) {
+            WorkloadTrace trace;
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                WorkloadTrace.Writer writer = new WorkloadTrace.Writer(bytes);
+                Random random = new Random(t);
+                switch (t) {
+                    case 0: sequentialTrace(writer, 10000); break;
+                    case 1: optimalTrace(writer, 10000); break;
+                    case 2: randomTrace(writer, 100000, random); break;
+                    case 3: zipfTrace(writer, 100000, 1000000, random); break;
+                    default: slidingWindowTrace(writer, 100000, 1000000, random);
+                }
+                writer.close();
+                trace = WorkloadTrace.read(new ByteArrayInputStream(bytes.toByteArray()));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            IBSTree[] trees = t < 3 ? new IBSTree[]{new AVLTree(), new BSTree(), new SplayTree(), new LeanAVLTree()}
+                    : new IBSTree[]{new AVLTree(), new SplayTree(), new LeanAVLTree()};
+            for (IBSTree tree : trees) {
+                WorkloadTrace.Result result = trace.replay(tree);
+                System.out.printf("%s %s | %f | %d | %d | %d | %f | %d\n", names[t], tree.getClass().getSimpleName(),
+                        result.throughput() / 1e6, result.latencyPercentile(0.5), result.latencyPercentile(0.99),
+                        result.latencyPercentile(0.999), result.allocatedBytesPerOperation(), result.unsupported());
+            }
+        }
+    }
+
+    /**
+     * inserts 0..n-1 in order, then searches them in order
+     */
+    static void sequentialTrace(WorkloadTrace.Writer writer, int n) throws IOException {
+        for (int k = 0; k < n; k++) writer.insert(k, (k & 1) == 0);
+        for (int k = 0; k < n; k++) writer.search(k);
+    }
+
+    /**
+     * inserts the keys of OptimalSequence, then searches them in the same order
+     */
+    static void optimalTrace(WorkloadTrace.Writer writer, int n) throws IOException {
+        int[] keys = IntStream.generate(new OptimalSequence(n)).limit(n).toArray();
+        for (int key : keys) writer.insert(key, (key & 1) == 0);
+        for (int key : keys) writer.search(key);
+    }
+
+    /**
+     * inserts n random keys, then searches random keys, half of them inserted, with a prefixXor of an inserted
+     * key after every fourth search
+     */
+    static void randomTrace(WorkloadTrace.Writer writer, int n, Random random) throws IOException {
+        int[] keys = random.ints(n, 0, Integer.MAX_VALUE).toArray();
+        for (int key : keys) writer.insert(key, random.nextBoolean());
+        for (int j = 0; j < n; j++) {
+            writer.search(random.nextBoolean() ? keys[random.nextInt(n)] : random.nextInt(Integer.MAX_VALUE));
+            if ((j & 3) == 3) writer.prefixXor(keys[random.nextInt(n)]);
+        }
+    }
+
+    /**
+     * inserts n random keys, then does ops operations on zipfian (s = 1) ranked keys:
+     * 80% searches, 10% deletes and 10% inserts
+     */
+    static void zipfTrace(WorkloadTrace.Writer writer, int n, int ops, Random random) throws IOException {
+        int[] keys = random.ints(n, 0, Integer.MAX_VALUE).toArray();
+        for (int key : keys) writer.insert(key, random.nextBoolean());
+        ZipfSequence zipf = new ZipfSequence(n, random);
+        for (int j = 0; j < ops; j++) {
+            int key = keys[zipf.getAsInt()];
+            int op = random.nextInt(10);
+            if (op == 0) writer.delete(key);
+            else if (op == 1) writer.insert(key, random.nextBoolean());
+            else writer.search(key);
+        }
+    }
+
+    /**
+     * keeps a window of the newest keys of an increasing sequence in the tree: every step inserts the next key,
+     * deletes the key that leaves the window and searches two random keys of the window
+     */
+    static void slidingWindowTrace(WorkloadTrace.Writer writer, int window, int ops, Random random) throws IOException {
+        int[] live = new int[window];
+        int next = 0;
+        for (int j = 0; j < window; j++) {
+            live[j] = next;
+            writer.insert(next, random.nextBoolean());
+            next += 1 + random.nextInt(4);
+        }
+        for (int j = 0; j < ops; j++) {
+            int slot = j % window;
+            writer.delete(live[slot]);
+            live[slot] = next;
+            writer.insert(next, random.nextBoolean());
+            next += 1 + random.nextInt(4);
+            writer.search(live[random.nextInt(window)]);
+            writer.search(live[random.nextInt(window)]);
+        }
+    }
+
+    /**
+     * a time-ordered work queue of n items: every step removes the smallest key and inserts a later one.
+     * prints the average time per step in nanoseconds with delete(peekFirstKey()), with pollFirst and with a
+     * java.util.PriorityQueue. the keys to insert are planned by a TreeSet first, moving a key that is already
+     * queued to the next free one, and all three queues must remove the same keys in the same order as it.
+     * keys are 64 apart on average so that such moves are rare.
+     */
+    public static void pollExperiment() {
+        for (int i = 1; i <= 5; i++) {
+            int n = i * 100000;
+            int steps = 2000000;
+            Random random = new Random(i);
+            TreeSet<Integer> plan = new TreeSet<>();
+            for (int k = 0; k < 64 * n; k += 64) plan.add(k);
+            int[] polled = new int[steps];
+            int[] inserted = new int[steps];
+            for (int j = 0; j < steps; j++) {
+                polled[j] = plan.pollFirst();
+                int key = polled[j] + random.nextInt(128 * n - 1) + 1;
+                while (!plan.add(key)) key++;
+                inserted[j] = key;
+            }
+            AVLTree deleting = new AVLTree();
+            AVLTree polling = new AVLTree();
+            PriorityQueue<Integer> heap = new PriorityQueue<>();
+            for (int k = 0; k < 64 * n; k += 64) {
+                deleting.insert(k, true);
+                polling.insert(k, true);
+                heap.add(k);
+            }
+            long start = nanoTime();
+            for (int j = 0; j < steps; j++) {
+                int first = deleting.peekFirstKey();
+                deleting.delete(first);
+                if (first != polled[j]) throw new IllegalStateException("delete(peekFirstKey()) removed " + first);
+                deleting.insert(inserted[j], true);
+            }
+            double deleteTime = (nanoTime() - start) / (double) steps;
+            start = nanoTime();
+            for (int j = 0; j < steps; j++) {
+                int first = polling.pollFirst();
+                if (first != polled[j]) throw new IllegalStateException("pollFirst removed " + first);
+                polling.insert(inserted[j], true);
+            }
+            double pollTime = (nanoTime() - start) / (double) steps;
+            start = nanoTime();
+            for (int j = 0; j < steps; j++) {
+                int first = heap.poll();
+                if (first != polled[j]) throw new IllegalStateException("the heap removed " + first);
+                heap.add(inserted[j]);
+            }
+            double heapTime = (nanoTime() - start) / (double) steps;
+            System.out.printf("i=%d | %f | %f | %f\n", i, deleteTime, pollTime, heapTime);
+        }
+    }
+
+    /**
+     * n random keys in [0, 4n), then n lookups of the first key at or above a random point and its info.
+     * prints the average time per lookup in nanoseconds with a TreeMap, with an AVLNavigableMap through the boxed
+     * NavigableMap methods and through its int overloads.
+     */
+    public static void navigableMapExperiment() {
+        for (int i = 1; i <= 5; i++) {
+            int n = i * 100000;
+            Random random = new Random(i);
+            TreeMap<Integer, Boolean> treeMap = new TreeMap<>();
+            AVLNavigableMap map = new AVLNavigableMap();
+            for (int j = 0; j < n; j++) {
+                int k = random.nextInt(4 * n);
+                boolean info = random.nextBoolean();
+                treeMap.put(k, info);
+                map.put(k, info);
+            }
+            int[] queries = random.ints(n, 0, 4 * n).toArray();
+            int[] found = new int[3];
+            long start = nanoTime();
+            for (int q : queries) {
+                Integer k = treeMap.ceilingKey(q);
+                if (k != null && treeMap.get(k)) found[0]++;
+            }
+            double treeMapTime = (nanoTime() - start) / (double) n;
+            start = nanoTime();
+            for (int q : queries) {
+                Integer k = map.ceilingKey(q);
+                if (k != null && map.get(k)) found[1]++;
+            }
+            double boxedTime = (nanoTime() - start) / (double) n;
+            start = nanoTime();
+            for (int q : queries) {
+                int k = map.ceilingIntKey(q);
+                if (k >= 0 && map.getOrDefault(k, false)) found[2]++;
+            }
+            double primitiveTime = (nanoTime() - start) / (double) n;
+            if (found[0] != found[1] || found[0] != found[2]) throw new IllegalStateException("the maps differ");
+            System.out.printf("i=%d | %f | %f | %f\n", i, treeMapTime, boxedTime, primitiveTime);
+        }
+    }
+
+    /**
+     * a tree of n items gets 1000 random inserts and deletes between refreshes of a follower.
+     * prints the average time per refresh in microseconds when the follower copies keysToArray and infoToArray,
+     * and when it polls the change log and applies the deltas to its own AVLTree.
+     */
+    public static void changeLogExperiment() {
+        int refreshes = 50;
+        int updates = 1000;
+        for (int i = 1; i <= 5; i++) {
+            int n = i * 100000;
+            Random random = new Random(i);
+            AVLTree leader = new AVLTree();
+            AVLTree follower = new AVLTree();
+            for (int j = 0; j < n; j++) {
+                int k = random.nextInt(4 * n);
+                leader.insert(k, j % 2 == 0);
+                follower.insert(k, j % 2 == 0);
+            }
+            ChangeLog.Cursor cursor = leader.enableChangeLog(4 * updates).cursor();
+            ChangeLog.Batch batch = new ChangeLog.Batch(256);
+            long snapshotTime = 0;
+            long deltaTime = 0;
+            for (int r = 0; r < refreshes; r++) {
+                for (int j = 0; j < updates; j++) {
+                    int k = random.nextInt(4 * n);
+                    if (j % 2 == 0) leader.insert(k, true);
+                    else leader.delete(k);
+                }
+                long start = nanoTime();
+                int[] keys = leader.keysToArray();
+                boolean[] info = leader.infoToArray();
+                snapshotTime += nanoTime() - start;
+                start = nanoTime();
+                while (cursor.poll(batch) > 0) batch.applyTo(follower);
+                deltaTime += nanoTime() - start;
+                if (keys.length != follower.size()) throw new IllegalStateException("the follower fell behind");
+            }
+            System.out.printf("i=%d | %f | %f\n", i, snapshotTime / 1e3 / refreshes, deltaTime / 1e3 / refreshes);
+        }
+    }
+
+    /**
+     * n random keys with delete/insert churn through a node pool, held by an AVLTree, a LeanAVLTree and a
+     * FrozenAVLIndex. prints the measured heap growth per key and the estimateRetainedBytes per key of each.
+     * the two must agree within FOOTPRINT_TOLERANCE of the measured bytes; the gap is the garbage collector's
+     * rounding and whatever else the JVM allocated in between, under 2% at 100000 keys and less above.
+     */
+    public static void footprintExperiment() {
+        for (int i = 1; i <= 5; i++) {
+            int n = i * 100000;
+            Random random = new Random(i);
+            long before = usedHeap();
+            AVLTree tree = new AVLTree(n / 10);
+            for (int j = 0; j < n; j++) tree.insert(random.nextInt(4 * n), true);
+            for (int j = 0; j < n; j++) tree.delete(random.nextInt(4 * n));
+            long treeBytes = usedHeap() - before;
+            int[] keys = tree.keysToArray();
+            boolean[] info = tree.infoToArray();
+            before = usedHeap();
+            LeanAVLTree lean = new LeanAVLTree();
+            for (int key : keys) lean.insert(key, true);
+            long leanBytes = usedHeap() - before;
+            before = usedHeap();
+            FrozenAVLIndex frozen = new FrozenAVLIndex(keys, info);
+            long frozenBytes = usedHeap() - before;
+            // every structure is used after the last measurement, so none of them was collected before it
+            int size = keys.length;
+            if (tree.size() != size || lean.size() != size || frozen.size() != info.length) {
+                throw new IllegalStateException("the structures differ in size");
+            }
+            checkEstimate("AVLTree", treeBytes, tree.estimateRetainedBytes());
+            checkEstimate("LeanAVLTree", leanBytes, lean.estimateRetainedBytes());
+            checkEstimate("FrozenAVLIndex", frozenBytes, frozen.estimateRetainedBytes());
+            System.out.printf("i=%d | %f | %f | %f | %f | %f | %f\n", i,
+                    treeBytes / (double) size, tree.estimateRetainedBytes() / (double) size,
+                    leanBytes / (double) size, lean.estimateRetainedBytes() / (double) size,
+                    frozenBytes / (double) size, frozen.estimateRetainedBytes() / (double) size);
+        }
+    }
+
+    /** how far, as a fraction of the measured bytes, an estimateRetainedBytes may be off in footprintExperiment */
+    private static final double FOOTPRINT_TOLERANCE = 0.05;
+
+    private static void checkEstimate(String name, long measured, long estimate) {
+        if (Math.abs(measured - estimate) > FOOTPRINT_TOLERANCE * measured) {
+            throw new IllegalStateException(name + " estimates " + estimate + " bytes but takes " + measured);
+        }
+    }
+
+    /**
+     * bursts of deletes of half the keys of a tree of n items, each followed by inserting them back.
+     * prints the average time per delete and per insert in nanoseconds with eager deletes, and with lazy deletes
+     * compacted at 50% tombstones (the compactions included). both trees must hold the same items afterwards,
+     * and checkDeleteReturns checks what delete returns first.
+     */
+    public static void lazyDeleteExperiment() {
+        checkDeleteReturns(new Random(0));
+        for (int i = 1; i <= 5; i++) {
+            int n = i * 100000;
+            Random random = new Random(i);
+            int[] keys = random.ints(n, 0, Integer.MAX_VALUE).distinct().toArray();
+            int[] burst = Arrays.copyOf(keys, keys.length / 2);
+            AVLTree eager = new AVLTree();
+            AVLTree lazy = new AVLTree();
+            lazy.enableLazyDelete(0.5);
+            for (int key : keys) {
+                eager.insert(key, (key & 1) == 0);
+                lazy.insert(key, (key & 1) == 0);
+            }
+            double[] eagerTimes = timeDeleteBursts(eager, burst);
+            double[] lazyTimes = timeDeleteBursts(lazy, burst);
+            checkSameItems(eager, lazy, random);
+            System.out.printf("i=%d | %f | %f | %f | %f\n", i, eagerTimes[0], eagerTimes[1], lazyTimes[0], lazyTimes[1]);
+        }
+    }
+
+    /**
+     * for growing sizes: ms to build a tree from sorted keys by inserts, by fromSorted on one thread and by
+     * fromSorted on the common pool, then ns per search in a tree built by random inserts before and after
+     * rebalanceFully, and the ms rebalanceFully took. the trees built by fromSorted and the rebalanced one must
+     * hold the same items as the one built by inserts.
+     */
+    public static void bulkBuildExperiment() {
+        ForkJoinPool single = new ForkJoinPool(1);
+        for (int i = 1; i <= 5; i++) {
+            int n = i * 200000;
+            int[] keys = new Random(i).ints(n, 0, Integer.MAX_VALUE).distinct().sorted().toArray();
+            boolean[] info = new boolean[keys.length];
+            for (int j = 0; j < info.length; j++) info[j] = (keys[j] & 1) == 0;
+            long start = nanoTime();
+            AVLTree inserted = new AVLTree();
+            for (int j = 0; j < keys.length; j++) inserted.insert(keys[j], info[j]);
+            double insertMs = (nanoTime() - start) / 1e6;
+            start = nanoTime();
+            AVLTree serial = AVLTree.fromSorted(keys, info, single);
+            double serialMs = (nanoTime() - start) / 1e6;
+            start = nanoTime();
+            AVLTree parallel = AVLTree.fromSorted(keys, info);
+            double parallelMs = (nanoTime() - start) / 1e6;
+            Random random = new Random(-i);
+            checkSameItems(serial, inserted, random);
+            checkSameItems(parallel, inserted, random);
+
+            int[] shuffled = keys.clone();
+            shuffle(shuffled, random);
+            AVLTree fragmented = new AVLTree();
+            for (int key : shuffled) fragmented.insert(key, (key & 1) == 0);
+            double before = measureSearches(fragmented, shuffled);
+            start = nanoTime();
+            fragmented.rebalanceFully();
+            double rebuildMs = (nanoTime() - start) / 1e6;
+            double after = measureSearches(fragmented, shuffled);
+            checkSameItems(fragmented, inserted, random);
+            System.out.printf("i=%d | %f | %f | %f | %f | %f | %f\n", i, insertMs, serialMs, parallelMs, before, after,
+                    rebuildMs);
+        }
+        single.shutdown();
+    }
+
+    /**
+     * random inserts and deletes on an eager tree, a lazy one and a TreeMap, which grow to up to 1000 items and
+     * shrink to at most 3 in turns, so that roots with one child or none get deleted too. deleting a present key
+     * must return at least 1 from the eager tree and exactly 1 from the lazy one, deleting an absent key -1, and
+     * all three must hold the same items after every turn.
+     */
+    private static void checkDeleteReturns(Random random) {
+        AVLTree eager = new AVLTree();
+        AVLTree lazy = new AVLTree();
+        lazy.enableLazyDelete(0.5);
+        TreeMap<Integer, Boolean> items = new TreeMap<>();
+        for (int turn = 0; turn < 400; turn++) {
+            int target = turn % 2 == 0 ? random.nextInt(1000) : random.nextInt(4);
+            while (items.size() != target) {
+                int key = random.nextInt(2000);
+                if (items.size() < target) {
+                    boolean info = random.nextBoolean();
+                    boolean present = items.putIfAbsent(key, info) != null;
+                    if ((eager.insert(key, info) < 0) != present || (lazy.insert(key, info) < 0) != present) {
+                        throw new IllegalStateException("wrong return from inserting " + key);
+                    }
+                    continue;
+                }
+                if (random.nextBoolean()) {
+                    Integer next = items.ceilingKey(key);
+                    key = next != null ? next : items.firstKey();
+                }
+                boolean present = items.remove(key) != null;
+                int eagerResult = eager.delete(key);
+                int lazyResult = lazy.delete(key);
+                if (present ? eagerResult < 1 || lazyResult != 1 : eagerResult != -1 || lazyResult != -1) {
+                    throw new IllegalStateException("delete of " + key + " returned " + eagerResult + " and "
+                            + lazyResult + " with " + items.size() + " items left");
+                }
+            }
+            int[] keys = items.keySet().stream().mapToInt(Integer::intValue).toArray();
+            boolean[] info = new boolean[keys.length];
+            int j = 0;
+            for (boolean value : items.values()) info[j++] = value;
+            if (!Arrays.equals(eager.keysToArray(), keys) || !Arrays.equals(eager.infoToArray(), info)) {
+                throw new IllegalStateException("the eager tree lost track of its items");
+            }
+            checkSameItems(eager, lazy, random);
+        }
+    }
+
+    private static double[] timeDeleteBursts(AVLTree t, int[] burst) {
+        int rounds = 5;
+        long deleting = 0;
+        long inserting = 0;
+        for (int r = 0; r < rounds; r++) {
+            long start = nanoTime();
+            for (int key : burst) t.delete(key);
+            deleting += nanoTime() - start;
+            start = nanoTime();
+            for (int key : burst) t.insert(key, true);
+            inserting += nanoTime() - start;
+        }
+        return new double[]{deleting / (double) rounds / burst.length, inserting / (double) rounds / burst.length};
+    }
+
+    private static double measureSearches(IBSTree t, int[] queries) {
+        timeSearches(t, queries); // warm up
+        return timeSearches(t, queries);
+    }
+
+    private static double timeSearches(IBSTree t, int[] queries) {
+        int found = 0;
+        long start = nanoTime();
+        for (int q : queries) {
+            if (t.search(q) != null) found++;
+        }
+        long end = nanoTime();
+        if (found != queries.length) throw new IllegalStateException("lost a key");
+        return (end - start) / (double) queries.length;
+    }
+
+    private static long youngGcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (!gc.getName().contains("Old") && !gc.getName().contains("MarkSweep")) count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    /**
+     * ranks in [0, n) where rank r is drawn with probability proportional to 1 / (r + 1)
+     */
+    static class ZipfSequence implements IntSupplier {
+        double[] cdf;
+        Random random;
+        public ZipfSequence(int n, Random random) {
+            this.random = random;
+            cdf = new double[n];
+            double total = 0;
+            for (int r = 0; r < n; r++) cdf[r] = total += 1.0 / (r + 1);
+            for (int r = 0; r < n; r++) cdf[r] /= total;
+        }
+
+        @Override
+        public int getAsInt() {
+            int r = Arrays.binarySearch(cdf, random.nextDouble());
+            return Math.min(r < 0 ? -r - 1 : r, cdf.length - 1);
+        }
+    }
+
     static class OptimalSequence implements IntSupplier {
         int n;
         int exp = 1;
@@ -1,3 +1,6 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
 public class BSTree implements IBSTree {
     private BSTNode root;
 
@@ -131,86 +134,79 @@ public class BSTree implements IBSTree {
     }
 
 
+    /**
+     * public void printTree()
+     * <p>
+     * prints the whole tree to System.out as indented text, one node per line.
+     * time complexity: O(size * depth)
+     */
     public void printTree() {
-        String[] visual = trepr(root);
-        for (int i=0; i<visual.length; i++) {
-            System.out.println(visual[i]);
+        try {
+            render(System.out, Integer.MAX_VALUE, Integer.MAX_VALUE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
     }
 
-    private static String[] trepr(BSTNode node) {
-        // Return a list of textual representations of the levels in t
-        if (node == null) return new String[]{"┴"};
-        String zis = node.toString();
-        String[] leftTxt;
-        String[] rightTxt;
-        if (!node.getLeft().isRealNode())
-            leftTxt = new String[]{"┴"};
-        else
-            leftTxt = trepr(node.getLeft());
-        if (!node.getRight().isRealNode())
-            rightTxt = new String[]{"┴"};
-        else
-            rightTxt = trepr(node.getRight());
-        return conc(leftTxt,zis,rightTxt);
+    /**
+     * public void render(Appendable out, int maxDepth, int maxNodes)
+     * <p>
+     * writes the tree to out as indented text, one node per line, without recursion.
+     * the children of nodes at depth maxDepth are elided, and the output is cut off after maxNodes nodes.
+     * time complexity: O(output)
+     */
+    public void render(Appendable out, int maxDepth, int maxNodes) throws IOException {
+        TreeRenderer.render(SHAPE, realOrNull(root), out, maxDepth, maxNodes);
     }
 
-    private static String[] conc(String[] left, String root, String[] right) {
-        // Return a concatenation of textual represantations of
-        // a root node, its left node, and its right node
-        int lwid = left[left.length-1].length(); // levels in left
-        int rwid = right[right.length-1].length(); // levels in right
-        int rootwid = root.length();
-        String[] result = new String[2 + Math.max(left.length,right.length)];
-        result[0] = mul(" ",lwid+1) + root + mul(" ",rwid+1); // first row
-        int ls = leftspace(left[0]);
-        int rs = rightspace(right[0]);
-        result[1] = mul(" ",ls) + mul("",lwid-ls) + "/" + mul(" ",rootwid) + "\\" + mul("",rs) + mul(" ",rwid-rs); // second row
-        String row;
-        for (int i=0; i<Math.max(left.length,right.length); i++) {
-            // conect the i row in left to row i in right
-            row = "";
-
-            if (i < left.length) {
-                row += left[i];
-            }
-            else {
-                row += mul(" ",lwid);
-            }
+    /**
+     * public void writeDot(Appendable out)
+     * <p>
+     * writes the tree to out as a Graphviz DOT digraph, labeling every node with its key and info.
+     * time complexity: O(size)
+     */
+    public void writeDot(Appendable out) throws IOException {
+        TreeRenderer.writeDot(SHAPE, realOrNull(root), out);
+    }
 
-            row += mul(" ",rootwid+2);
+    /**
+     * public void writeJson(Appendable out)
+     * <p>
+     * writes the tree to out as compact JSON: {"k":key,"v":info,"l":left,"r":right}, with null for absent children.
+     * time complexity: O(size)
+     */
+    public void writeJson(Appendable out) throws IOException {
+        TreeRenderer.writeJson(SHAPE, realOrNull(root), out);
+    }
 
-            if (i < right.length) {
-                row += right[i];
-            }
-            else {
-                row += mul(" ",rwid);
-            }
+    private static BSTNode realOrNull(BSTNode node) {
+        return node == null || !node.isRealNode() ? null : node;
+    }
 
-            result[i+2] = row;
+    /**
+     * how TreeRenderer reads the nodes, virtual children are reported as absent
+     */
+    private static final TreeRenderer.Shape<BSTNode> SHAPE = new TreeRenderer.Shape<BSTNode>() {
+        public BSTNode left(BSTNode node) {
+            return realOrNull(node.getLeft());
         }
-        return result;
-    }
 
-    private static int leftspace(String row) {
-        int i = row.length()-1;
-        while (row.charAt(i)==' ') {i--;}
-        return i+1;
-        // returns the index of where the second whitespace starts
-    }
+        public BSTNode right(BSTNode node) {
+            return realOrNull(node.getRight());
+        }
 
-    private static int rightspace(String row) {
-        int i = 0;
-        while (row.charAt(i)==' ') {i++;}
-        return i;
-        // returns the index of where the first whitespace ends
-    }
+        public int key(BSTNode node) {
+            return node.getKey();
+        }
 
-    private static String mul(String a, int t) {
-        if (t==0) {return "";}
-        return mul(a,t-1)+a;
-        // return new string of a+a...+a - t times
-    }
+        public boolean value(BSTNode node) {
+            return node.getValue();
+        }
+
+        public boolean deleted(BSTNode node) {
+            return false;
+        }
+    };
 
 
 
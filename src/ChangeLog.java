@@ -0,0 +1,265 @@
+/**
+ * public class ChangeLog
+ * <p>
+ * A bounded ring buffer of the changes made to an AVLTree, for followers that keep a copy of the tree (or an
+ * index derived from it) up to date without rescanning it.
+ * <p>
+ * Every successful change is recorded as one event, with an opcode, a key and, for range operations, the upper
+ * bound of the range. Inserts, deletes, replaces and setRange carry the info in the opcode, for a delete the
+ * info the item had. Events are numbered by consecutive sequence numbers from 0. The buffer holds the last
+ * capacity events in three parallel arrays, so recording doesn't allocate. Once it is full every new event
+ * overwrites the oldest one.
+ * <p>
+ * A follower reads through its own Cursor, in batches. A cursor that fell more than capacity events behind
+ * has missed events, and poll returns OVERFLOW instead of a batch. The follower must then call resync and
+ * rebuild its copy from a snapshot of the tree, such as keysToArray and infoToArray, taken before the tree
+ * changes again.
+ * <p>
+ * The log has one writer, the thread that changes the tree. Followers may poll from other threads, each cursor
+ * from one thread at a time. An event is written to its slot before the volatile sequence number that publishes
+ * it, so a poll never sees a half-written event, and poll rechecks the sequence number after copying to catch a
+ * writer that lapped it. Java 8 has no fence that orders the copy before that recheck, so on hardware that
+ * reorders loads a lap can go unnoticed; size the log so followers stay well within capacity events.
+ */
+public class ChangeLog {
+    public static final byte INSERT_FALSE = 0;
+    public static final byte INSERT_TRUE = 1;
+    public static final byte DELETE_FALSE = 2;
+    public static final byte DELETE_TRUE = 3;
+    public static final byte REPLACE_FALSE = 4;
+    public static final byte REPLACE_TRUE = 5;
+    public static final byte DELETE_RANGE = 6;
+    public static final byte FLIP_RANGE = 7;
+    public static final byte SET_RANGE_FALSE = 8;
+    public static final byte SET_RANGE_TRUE = 9;
+    /**
+     * what poll returns when the cursor was overtaken by the writer
+     */
+    public static final int OVERFLOW = -1;
+    private static final long SHALLOW_BYTES = HeapFootprint.shallowBytes(ChangeLog.class);
+
+    private final byte[] ops;
+    private final int[] keys;
+    /**
+     * the upper bound of each range event, equal to the key for the other events
+     */
+    private final int[] his;
+    private final int mask;
+    /**
+     * the sequence number of the next event. written only by the writer, after the event's slot
+     */
+    private volatile long next;
+
+    /**
+     * constructs an empty log holding the last capacity events, rounded up to a power of two
+     * time complexity: O(capacity)
+     */
+    public ChangeLog(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        int size = Integer.highestOneBit(Math.min(capacity, 1 << 30));
+        if (size < capacity) size <<= 1;
+        this.ops = new byte[size];
+        this.keys = new int[size];
+        this.his = new int[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Appends an event, overwriting the oldest one if the log is full.
+     * time complexity: O(1)
+     */
+    void record(byte op, int key, int hi) {
+        long sequence = next;
+        int slot = (int) sequence & mask;
+        ops[slot] = op;
+        keys[slot] = key;
+        his[slot] = hi;
+        next = sequence + 1;
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Returns the estimated heap the log retains, its ring arrays included.
+     * time complexity: O(1)
+     */
+    public long estimateRetainedBytes() {
+        return SHALLOW_BYTES + HeapFootprint.arrayBytes(capacity(), 1)
+                + 2 * HeapFootprint.arrayBytes(capacity(), 4);
+    }
+
+    /**
+     * Returns the sequence number the next event will get, which is the number of events recorded so far.
+     * time complexity: O(1)
+     */
+    public long nextSequence() {
+        return next;
+    }
+
+    /**
+     * Returns the sequence number of the oldest event still in the log.
+     * time complexity: O(1)
+     */
+    public long oldestSequence() {
+        return Math.max(0, next - capacity());
+    }
+
+    /**
+     * Returns a cursor positioned after the last recorded event, so it will see only later events.
+     * time complexity: O(1)
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * public class Cursor
+     * <p>
+     * The read position of one follower.
+     */
+    public class Cursor {
+        private long position = next;
+
+        private Cursor() {
+        }
+
+        /**
+         * Copies the events after the cursor into batch, as many as fit, and moves the cursor past them.
+         * time complexity: O(copied events)
+         * @return the number of copied events, 0 if there are no new ones, or OVERFLOW if some events after the
+         * cursor were already overwritten, before or during the copy. the cursor doesn't move on OVERFLOW, and the
+         * batch holds no valid events.
+         */
+        public int poll(Batch batch) {
+            long end = next;
+            if (position < end - capacity()) return OVERFLOW;
+            int count = (int) Math.min(end - position, batch.ops.length);
+            int slot = (int) position & mask;
+            int first = Math.min(count, capacity() - slot);
+            System.arraycopy(ops, slot, batch.ops, 0, first);
+            System.arraycopy(keys, slot, batch.keys, 0, first);
+            System.arraycopy(his, slot, batch.his, 0, first);
+            System.arraycopy(ops, 0, batch.ops, first, count - first);
+            System.arraycopy(keys, 0, batch.keys, first, count - first);
+            System.arraycopy(his, 0, batch.his, first, count - first);
+            if (position < next - capacity()) {
+                batch.size = 0;
+                return OVERFLOW;
+            }
+            batch.firstSequence = position;
+            batch.size = count;
+            position += count;
+            return count;
+        }
+
+        /**
+         * Returns the number of events after the cursor, some of which may have been overwritten.
+         * time complexity: O(1)
+         */
+        public long lag() {
+            return next - position;
+        }
+
+        /**
+         * Moves the cursor after the last recorded event, dropping the ones it didn't read.
+         * called after an OVERFLOW, right before taking a snapshot of the tree.
+         * time complexity: O(1)
+         */
+        public void resync() {
+            position = next;
+        }
+
+        /**
+         * Returns the sequence number of the next event the cursor will read.
+         * time complexity: O(1)
+         */
+        public long position() {
+            return position;
+        }
+    }
+
+    /**
+     * public static class Batch
+     * <p>
+     * A reusable buffer for the events read by one poll.
+     */
+    public static class Batch {
+        private final byte[] ops;
+        private final int[] keys;
+        private final int[] his;
+        private long firstSequence;
+        private int size;
+
+        /**
+         * constructs a batch that holds up to capacity events
+         * time complexity: O(capacity)
+         */
+        public Batch(int capacity) {
+            if (capacity <= 0) throw new IllegalArgumentException("capacity must be positive: " + capacity);
+            this.ops = new byte[capacity];
+            this.keys = new int[capacity];
+            this.his = new int[capacity];
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public byte op(int i) {
+            return ops[i];
+        }
+
+        // the key of the event, or the lower bound of its range
+        public int key(int i) {
+            return keys[i];
+        }
+
+        // the upper bound of the range of a range event, or the key of the other events
+        public int hi(int i) {
+            return his[i];
+        }
+
+        // the info that was inserted or set, or that a deleted item had. false for DELETE_RANGE and FLIP_RANGE
+        public boolean value(int i) {
+            byte op = ops[i];
+            return op == INSERT_TRUE || op == DELETE_TRUE || op == REPLACE_TRUE || op == SET_RANGE_TRUE;
+        }
+
+        public long sequence(int i) {
+            return firstSequence + i;
+        }
+
+        /**
+         * Applies the events of the batch to follower, in order.
+         * time complexity: O(size * log(follower size)), plus the items removed by range deletions
+         */
+        public void applyTo(AVLTree follower) {
+            for (int i = 0; i < size; ++i) {
+                switch (ops[i]) {
+                    case INSERT_FALSE:
+                    case INSERT_TRUE:
+                        follower.insert(keys[i], value(i));
+                        break;
+                    case DELETE_FALSE:
+                    case DELETE_TRUE:
+                        follower.delete(keys[i]);
+                        break;
+                    case REPLACE_FALSE:
+                    case REPLACE_TRUE:
+                        follower.replace(keys[i], value(i));
+                        break;
+                    case DELETE_RANGE:
+                        follower.deleteRange(keys[i], his[i]);
+                        break;
+                    case FLIP_RANGE:
+                        follower.flipRange(keys[i], his[i]);
+                        break;
+                    default:
+                        follower.setRange(keys[i], his[i], value(i));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,265 @@
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * public class CombiningAVLTree
+ * <p>
+ * A thread-safe AVLTree front end using flat combining. A thread publishes its operation in a slot of a shared
+ * array and then either waits for it to be answered, or takes the combiner lock and answers every published
+ * operation in one batch sorted by key. The lock changes hands once per batch instead of once per operation,
+ * and the tree's nodes stay in the combiner's cache.
+ * <p>
+ * A waiting thread yields a few times and then parks until the combiner that answers its operation unparks
+ * it. Whoever releases the combiner lock unparks the owner of an operation that is still published, which
+ * then combines it, so no operation waits on a parked thread. A thread that finds every slot taken backs off,
+ * first by yielding and then by parking for exponentially growing times. Nothing blocks while holding a
+ * monitor, so virtual threads unmount while they wait instead of pinning their carrier.
+ * <p>
+ * insert and delete return the same rebalancing counts as AVLTree's. An exception the tree throws while the
+ * combiner answers an operation is rethrown by the thread that made the operation, and the rest of the batch
+ * is still answered.
+ * <p>
+ * The gain combining aims for, fewer lock handoffs and less cache-line traffic under contention, needs several
+ * cores to show. combiningExperiment has only been run on a single CPU, where threads don't really contend and
+ * combining is slower than a plain lock, so the benefit on multi-core machines is unmeasured.
+ */
+public class CombiningAVLTree implements IBSTree {
+    private static final int INSERT = 0;
+    private static final int DELETE = 1;
+    private static final int SEARCH = 2;
+    /**
+     * how many times the combiner rescans the slots for operations published while it was working
+     */
+    private static final int COMBINE_PASSES = 3;
+    /**
+     * how many times a waiting thread yields before it parks
+     */
+    private static final int WAIT_YIELDS = 16;
+    /**
+     * the first and the longest park of a thread that finds every slot taken
+     */
+    private static final long MIN_BACKOFF_NANOS = 1000;
+    private static final long MAX_BACKOFF_NANOS = 1000000;
+    private static final Comparator<Request> BY_KEY = Comparator.comparingInt(r -> r.key);
+
+    private final AVLTree tree;
+    private final AtomicReferenceArray<Request> slots;
+    private final ReentrantLock combinerLock = new ReentrantLock();
+    /**
+     * the combiner's batch buffer, only touched under combinerLock
+     */
+    private Request[] batch;
+
+    /**
+     * constructs an empty tree with two slots per processor
+     * time complexity: O(processors)
+     */
+    public CombiningAVLTree() {
+        this(new AVLTree(), 2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * wraps tree, which must not be used directly afterwards
+     * time complexity: O(slots)
+     * @param slots the amount of operations that can be published at once
+     */
+    public CombiningAVLTree(AVLTree tree, int slots) {
+        if (slots <= 0) throw new IllegalArgumentException("slots must be positive: " + slots);
+        this.tree = tree;
+        this.slots = new AtomicReferenceArray<>(slots);
+        this.batch = new Request[slots];
+    }
+
+    /**
+     * inserts an item as in AVLTree.insert
+     * @return the number of rebalancing operations, or -1 if k was already in the tree
+     */
+    public int insert(int k, boolean i) {
+        return execute(new Request(INSERT, k, i)).result;
+    }
+
+    /**
+     * deletes an item as in AVLTree.delete
+     * @return the number of rebalancing operations, or -1 if k was not in the tree
+     */
+    public int delete(int k) {
+        return execute(new Request(DELETE, k, false)).result;
+    }
+
+    /**
+     * returns the info of the item with key k, or null if it is not in the tree
+     */
+    public Boolean search(int k) {
+        Request request = execute(new Request(SEARCH, k, false));
+        return request.result < 0 ? null : request.result == 1;
+    }
+
+    public void printTree() {
+        combinerLock.lock();
+        try {
+            tree.printTree();
+        } finally {
+            releaseCombiner();
+        }
+    }
+
+    /**
+     * Returns the number of items in the tree.
+     */
+    public int size() {
+        combinerLock.lock();
+        try {
+            return tree.size();
+        } finally {
+            releaseCombiner();
+        }
+    }
+
+    /**
+     * Publishes the request and waits until a combiner, maybe this thread, has answered it.
+     * an exception thrown by the tree while answering the request is rethrown here, in the thread that made it.
+     */
+    private Request execute(Request request) {
+        int n = slots.length();
+        int slot = ThreadLocalRandom.current().nextInt(n);
+        boolean published = false;
+        for (int round = 0; !published; ++round) {
+            for (int probe = 0; probe < n && !published; ++probe, slot = slot + 1 == n ? 0 : slot + 1) {
+                published = slots.get(slot) == null && slots.compareAndSet(slot, null, request);
+            }
+            if (published) break;
+            if (combinerLock.tryLock()) {
+                try {
+                    combine();
+                } finally {
+                    releaseCombiner();
+                }
+            } else {
+                backOff(round);
+            }
+        }
+        for (int round = 0; !request.done; ++round) {
+            if (combinerLock.tryLock()) {
+                try {
+                    if (!request.done) combine();
+                } finally {
+                    releaseCombiner();
+                }
+            } else if (round < WAIT_YIELDS) {
+                Thread.yield();
+            } else {
+                // the combiner holding the lock either answers the request or unparks this thread on release
+                LockSupport.park(this);
+            }
+        }
+        Throwable failure = request.failure;
+        if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+        if (failure instanceof Error) throw (Error) failure;
+        if (failure != null) throw new IllegalStateException(failure);
+        return request;
+    }
+
+    /**
+     * Waits before the next attempt to publish: yields for the first rounds, then parks for twice as long
+     * every round up to MAX_BACKOFF_NANOS.
+     */
+    private static void backOff(int round) {
+        if (round < WAIT_YIELDS) {
+            Thread.yield();
+        } else {
+            int doublings = Math.min(round - WAIT_YIELDS, 30);
+            LockSupport.parkNanos(Math.min(MIN_BACKOFF_NANOS << doublings, MAX_BACKOFF_NANOS));
+        }
+    }
+
+    /**
+     * Unlocks combinerLock and unparks the owner of a request that is still published, if there is one,
+     * so that a thread which parked while the lock was held takes over combining.
+     */
+    private void releaseCombiner() {
+        combinerLock.unlock();
+        for (int i = 0; i < slots.length(); ++i) {
+            Request waiting = slots.get(i);
+            if (waiting != null) {
+                LockSupport.unpark(waiting.thread);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Takes every published request out of the slots and answers them in key order.
+     * must hold combinerLock.
+     */
+    private void combine() {
+        for (int pass = 0; pass < COMBINE_PASSES; ++pass) {
+            int count = 0;
+            for (int i = 0; i < slots.length(); ++i) {
+                Request request = slots.get(i);
+                if (request != null) {
+                    slots.set(i, null);
+                    batch[count++] = request;
+                }
+            }
+            if (count == 0) return;
+            Arrays.sort(batch, 0, count, BY_KEY);
+            Thread combiner = Thread.currentThread();
+            for (int i = 0; i < count; ++i) {
+                Request request = batch[i];
+                batch[i] = null;
+                try {
+                    apply(request);
+                } catch (Throwable failure) {
+                    // handed to the request's own thread, the rest of the batch is still answered
+                    request.failure = failure;
+                } finally {
+                    request.done = true;
+                    if (request.thread != combiner) LockSupport.unpark(request.thread);
+                }
+            }
+        }
+    }
+
+    private void apply(Request request) {
+        switch (request.op) {
+            case INSERT:
+                request.result = tree.insert(request.key, request.value);
+                break;
+            case DELETE:
+                request.result = tree.delete(request.key);
+                break;
+            default:
+                Boolean value = tree.search(request.key);
+                request.result = value == null ? -1 : value ? 1 : 0;
+        }
+    }
+
+    /**
+     * a published operation. result and failure are written before done, so a thread that sees done sees them
+     */
+    private static final class Request {
+        final int op;
+        final int key;
+        final boolean value;
+        /**
+         * the thread waiting for the result, unparked once it is there
+         */
+        final Thread thread = Thread.currentThread();
+        int result;
+        /**
+         * what the tree threw while answering the operation, or null
+         */
+        Throwable failure;
+        volatile boolean done;
+
+        Request(int op, int key, boolean value) {
+            this.op = op;
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/**
+ * public class FrozenAVLIndex
+ * <p>
+ * A read-only copy of an AVLTree laid out for fast lookups. The sorted keys are cut into blocks of BLOCK keys,
+ * and the last key of every block is kept in an Eytzinger (breadth-first) array, so the search for the block
+ * reads one cache line per level and its next levels are prefetched. Inside the block the position of the key
+ * is the number of keys smaller than it, counted without branches over the whole block.
+ * <p>
+ * The index is read-only, it has no insert or delete. Keys are non-negative, as in AVLTree.
+ */
+public class FrozenAVLIndex {
+    /**
+     * keys per block, two cache lines long
+     */
+    public static final int BLOCK = 32;
+    /**
+     * the shallow size of an index, for heapFootprint
+     */
+    private static final long INDEX_BYTES = HeapFootprint.shallowBytes(FrozenAVLIndex.class);
+    /**
+     * the sorted keys, padded to a whole number of blocks with Integer.MAX_VALUE
+     */
+    private final int[] keys;
+    private final boolean[] values;
+    /**
+     * prefixXor[i] is the xor of values[0..i]
+     */
+    private final boolean[] prefixXor;
+    /**
+     * the last key of every block in Eytzinger order, starting at index 1, and the block each entry belongs to
+     */
+    private final int[] blockMax;
+    private final int[] blockOf;
+    private final int size;
+
+    /**
+     * freezes the current items of tree. later changes to tree are not seen by the index.
+     * time complexity: O(size)
+     */
+    public FrozenAVLIndex(AVLTree tree) {
+        this(tree.keysToArray(), tree.infoToArray());
+    }
+
+    /**
+     * builds the index over sorted distinct non-negative keys and their info
+     * time complexity: O(size)
+     */
+    public FrozenAVLIndex(int[] sortedKeys, boolean[] info) {
+        if (sortedKeys.length != info.length) {
+            throw new IllegalArgumentException("keys and info differ in length: " + sortedKeys.length + " != " + info.length);
+        }
+        this.size = sortedKeys.length;
+        int blocks = (size + BLOCK - 1) / BLOCK;
+        this.keys = new int[blocks * BLOCK];
+        System.arraycopy(sortedKeys, 0, keys, 0, size);
+        for (int i = size; i < keys.length; ++i) keys[i] = Integer.MAX_VALUE;
+        this.values = info.clone();
+        this.prefixXor = new boolean[size];
+        boolean xor = false;
+        for (int i = 0; i < size; ++i) {
+            xor ^= info[i];
+            prefixXor[i] = xor;
+        }
+        this.blockMax = new int[blocks + 1];
+        this.blockOf = new int[blocks + 1];
+        fillEytzinger(1, 0);
+    }
+
+    /**
+     * Places the blocks from first on, in order, at the in-order positions of the Eytzinger subtree of index.
+     * time complexity: O(blocks)
+     * @return the first block that was not placed
+     */
+    private int fillEytzinger(int index, int first) {
+        if (index >= blockMax.length) return first;
+        first = fillEytzinger(2 * index, first);
+        blockMax[index] = keys[first * BLOCK + BLOCK - 1];
+        blockOf[index] = first;
+        return fillEytzinger(2 * index + 1, first + 1);
+    }
+
+    /**
+     * returns the info of an item with key k if it exists in the index, otherwise returns null
+     * time complexity: O(log(size))
+     */
+    public Boolean search(int k) {
+        int position = position(k);
+        return position < 0 ? null : values[position];
+    }
+
+    /**
+     * Finds the position of k in keys.
+     * time complexity: O(log(size / BLOCK) + BLOCK)
+     * @return the position, or -1 if k is not in the index
+     */
+    private int position(int k) {
+        if (k < 0) return -1;
+        // the first block whose last key is >= k
+        int index = 1;
+        while (index < blockMax.length) {
+            index = 2 * index + (blockMax[index] < k ? 1 : 0);
+        }
+        index >>>= Integer.numberOfTrailingZeros(~index) + 1;
+        if (index == 0) return -1;
+        int base = blockOf[index] * BLOCK;
+        int smaller = 0;
+        for (int i = base; i < base + BLOCK; ++i) {
+            smaller += (keys[i] - k) >>> 31; // both are non-negative, so the difference can't overflow
+        }
+        int position = base + smaller;
+        return position < size && keys[position] == k ? position : -1;
+    }
+
+    /**
+     * Given an argument k which is a key in the index, calculate the xor of the values of items whose keys are
+     * smaller or equal to k.
+     * precondition: this.search(k) != null
+     * time complexity: O(log(size))
+     */
+    public boolean prefixXor(int k) {
+        return prefixXor[position(k)];
+    }
+
+    /**
+     * Returns the info of the item with the smallest key, or null if the index is empty
+     * time complexity: O(1)
+     */
+    public Boolean min() {
+        return size == 0 ? null : values[0];
+    }
+
+    /**
+     * Returns the info of the item with the largest key, or null if the index is empty
+     * time complexity: O(1)
+     */
+    public Boolean max() {
+        return size == 0 ? null : values[size - 1];
+    }
+
+    /**
+     * Returns a sorted array which contains all keys in the index
+     * time complexity: O(size)
+     */
+    public int[] keysToArray() {
+        int[] arr = new int[size];
+        System.arraycopy(keys, 0, arr, 0, size);
+        return arr;
+    }
+
+    /**
+     * Returns an array which contains all info in the index, sorted by their respective keys
+     * time complexity: O(size)
+     */
+    public boolean[] infoToArray() {
+        return values.clone();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean empty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns an estimate of the heap retained by the index, the total of heapFootprint().
+     * time complexity: O(1)
+     */
+    public long estimateRetainedBytes() {
+        return heapFootprint().total();
+    }
+
+    /**
+     * Returns the estimated heap retained by the index, in parts: the index object, the padded key array,
+     * the value and prefix xor arrays, and the Eytzinger block index.
+     * time complexity: O(1)
+     */
+    public HeapFootprint heapFootprint() {
+        return new HeapFootprint()
+                .part(HeapFootprint.TREE, INDEX_BYTES)
+                .part(HeapFootprint.KEYS, HeapFootprint.arrayBytes(keys.length, 4))
+                .part(HeapFootprint.VALUES, HeapFootprint.arrayBytes(values.length, 1)
+                        + HeapFootprint.arrayBytes(prefixXor.length, 1))
+                .part(HeapFootprint.BLOCK_INDEX, HeapFootprint.arrayBytes(blockMax.length, 4)
+                        + HeapFootprint.arrayBytes(blockOf.length, 4));
+    }
+
+    /**
+     * Prints the items in order, one block per line.
+     */
+    public void printTree() {
+        for (int base = 0; base < size; base += BLOCK) {
+            StringBuilder line = new StringBuilder();
+            for (int i = base; i < Math.min(size, base + BLOCK); ++i) {
+                line.append('(').append(keys[i]).append(values[i] ? ",T) " : ",F) ");
+            }
+            System.out.println(line);
+        }
+    }
+}
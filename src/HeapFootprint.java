@@ -0,0 +1,190 @@
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * public class HeapFootprint
+ * <p>
+ * An estimate of the heap a tree retains, broken down into named parts.
+ * <p>
+ * The parts add up to total(). Details are a finer view of bytes that the parts already count, such as the
+ * thread pointers inside the nodes. They are reported for comparison and are not added to the total.
+ * <p>
+ * Sizes follow the HotSpot object layout of the running JVM: a 12 or 16 byte object header, 4 or 8 byte
+ * references depending on compressed oops, and objects padded to ObjectAlignmentInBytes. A shallow object size
+ * is its header plus its fields, rounded up to the alignment. HotSpot packs fields into the header's gap, so
+ * this matches the real size unless the field types leave padding between fields. Field sizes come from
+ * reflection and are computed once per class, so building a footprint costs O(1) per part.
+ */
+public class HeapFootprint {
+    /**
+     * names of the parts and details, shared by the trees that report them
+     */
+    public static final String TREE = "tree";
+    public static final String REAL_NODES = "real nodes";
+    public static final String TOMBSTONES = "tombstones";
+    public static final String VIRTUAL_NODES = "virtual nodes";
+    public static final String NODE_POOL = "node pool";
+    public static final String SEARCH_CACHE = "search cache";
+    public static final String NEGATIVE_FILTER = "negative filter";
+    public static final String CHANGE_LOG = "change log";
+    public static final String KEYS = "keys";
+    public static final String VALUES = "values";
+    public static final String BLOCK_INDEX = "block index";
+    public static final String BOOLEAN_REFERENCES = "Boolean references";
+    public static final String BOOLEAN_OBJECTS = "Boolean objects";
+    public static final String THREAD_POINTERS = "thread pointers";
+    public static final String PARENT_POINTERS = "parent pointers";
+
+    public static final int REFERENCE_BYTES;
+    public static final int OBJECT_HEADER_BYTES;
+    public static final int ARRAY_HEADER_BYTES;
+    public static final int ALIGNMENT;
+
+    static {
+        boolean compressedOops = Boolean.parseBoolean(vmOption("UseCompressedOops", "true"));
+        boolean compressedClassPointers = Boolean.parseBoolean(vmOption("UseCompressedClassPointers",
+                String.valueOf(compressedOops)));
+        REFERENCE_BYTES = compressedOops ? 4 : 8;
+        OBJECT_HEADER_BYTES = compressedClassPointers ? 12 : 16;
+        // the array length follows the header, and the elements start at the next 8 byte boundary
+        ARRAY_HEADER_BYTES = (OBJECT_HEADER_BYTES + 4 + 7) & ~7;
+        ALIGNMENT = Integer.parseInt(vmOption("ObjectAlignmentInBytes", "8"));
+    }
+
+    private final List<String> names = new ArrayList<>();
+    private final List<Long> bytes = new ArrayList<>();
+    /**
+     * how many of the leading entries of names are parts, the rest are details
+     */
+    private int parts;
+    private long total;
+
+    HeapFootprint() {
+    }
+
+    /**
+     * Adds a part, which counts toward the total.
+     * parts must be added before details.
+     */
+    HeapFootprint part(String name, long size) {
+        names.add(parts, name);
+        bytes.add(parts, size);
+        ++parts;
+        total += size;
+        return this;
+    }
+
+    /**
+     * Adds a detail, bytes that some part already counts.
+     */
+    HeapFootprint detail(String name, long size) {
+        names.add(name);
+        bytes.add(size);
+        return this;
+    }
+
+    /**
+     * Returns the estimated bytes retained by the tree, the sum of all parts.
+     * time complexity: O(1)
+     */
+    public long total() {
+        return total;
+    }
+
+    /**
+     * Returns the bytes of the part or detail called name, or 0 if there is none.
+     * time complexity: O(parts)
+     */
+    public long bytes(String name) {
+        int index = names.indexOf(name);
+        return index < 0 ? 0 : bytes.get(index);
+    }
+
+    /**
+     * Returns the names of the parts, in the order they were added.
+     * time complexity: O(parts)
+     */
+    public List<String> parts() {
+        return new ArrayList<>(names.subList(0, parts));
+    }
+
+    /**
+     * Returns the names of the details, in the order they were added.
+     * time complexity: O(parts)
+     */
+    public List<String> details() {
+        return new ArrayList<>(names.subList(parts, names.size()));
+    }
+
+    /**
+     * One line per part, then one per detail marked as included in the parts, then the total.
+     */
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < names.size(); ++i) {
+            out.append(i < parts ? "  " : "  (included) ").append(names.get(i)).append(": ")
+                    .append(bytes.get(i)).append(" B\n");
+        }
+        return out.append("  total: ").append(total).append(" B").toString();
+    }
+
+    /**
+     * Returns the shallow size of an instance of type: its header and the instance fields it declares or
+     * inherits, including the hidden reference of inner classes to their outer instance.
+     * time complexity: O(fields of type)
+     */
+    static long shallowBytes(Class<?> type) {
+        long size = OBJECT_HEADER_BYTES;
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                if (!Modifier.isStatic(field.getModifiers())) size += fieldBytes(field.getType());
+            }
+        }
+        return align(size);
+    }
+
+    /**
+     * Returns the size of an array of length elements of elementBytes each.
+     * time complexity: O(1)
+     */
+    static long arrayBytes(long length, int elementBytes) {
+        return align(ARRAY_HEADER_BYTES + length * elementBytes);
+    }
+
+    /**
+     * Returns the size of an array of length references.
+     * time complexity: O(1)
+     */
+    static long referenceArrayBytes(long length) {
+        return arrayBytes(length, REFERENCE_BYTES);
+    }
+
+    private static int fieldBytes(Class<?> type) {
+        if (!type.isPrimitive()) return REFERENCE_BYTES;
+        if (type == long.class || type == double.class) return 8;
+        if (type == int.class || type == float.class) return 4;
+        if (type == short.class || type == char.class) return 2;
+        return 1;
+    }
+
+    private static long align(long size) {
+        return (size + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    /**
+     * the value of a HotSpot flag, or fallback on JVMs that don't report it
+     */
+    private static String vmOption(String name, String fallback) {
+        try {
+            return ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class).getVMOption(name).getValue();
+        } catch (RuntimeException | LinkageError e) {
+            return fallback;
+        }
+    }
+}
@@ -0,0 +1,588 @@
+/**
+ * public class IntervalAVLTree
+ * <p>
+ * An AVL tree with integer keys and boolean values in which every node holds a maximal run [lo, hi] of
+ * consecutive keys that all carry the same value. Inserts and deletes split and coalesce runs, so a dense key
+ * space with long runs of equal values costs one node per run instead of one node per key.
+ * <p>
+ * search, prefixXor, keysToArray, infoToArray, min, max and size return exactly what an AVLTree holding the same
+ * keys would return. Children are plain null references (there are no virtual nodes) to keep the per-run cost low.
+ */
+public class IntervalAVLTree implements PrefixXorTree {
+    /**
+     * The root of the tree
+     */
+    private RunNode root;
+    /**
+     * The run with the highest keys in the tree
+     */
+    private RunNode max;
+    /**
+     * The run with the lowest keys in the tree
+     */
+    private RunNode min;
+    /**
+     * the amount of keys in the tree
+     */
+    private int size;
+    /**
+     * the amount of runs (nodes) in the tree
+     */
+    private int runs;
+
+    /**
+     * constructs an empty tree
+     * time complexity: O(1)
+     */
+    public IntervalAVLTree() {
+        this.root = null;
+        this.size = 0;
+        this.runs = 0;
+    }
+
+    /**
+     * returns true if and only if the tree is empty
+     * time complexity: O(1)
+     */
+    public boolean empty() {
+        return this.size == 0;
+    }
+
+    /**
+     * returns the info of an item with key k if it exists in the tree
+     * otherwise, returns null
+     * time complexity: O(log(runs))
+     */
+    public Boolean search(int k) {
+        RunNode node = root;
+        while (node != null) {
+            if (k < node.getLo())
+                node = node.getLeft();
+            else if (k > node.getHi())
+                node = node.getRight();
+            else
+                return node.getValue();
+        }
+        return null;
+    }
+
+    /**
+     * inserts an item with key k and info i to the tree, merging it into an adjacent run with the same value
+     * if there is one.
+     * returns the number of runs which required rebalancing operations (promotions or rotations),
+     * plus one for the run that was created or extended.
+     * returns -1 if an item with key k already exists in the tree.
+     * time complexity: O(log(runs))
+     */
+    public int insert(int k, boolean i) {
+        RunNode floor = floorRun(k);
+        if (floor != null && floor.getHi() >= k) return -1;
+        RunNode ceiling = floor == null ? min : floor.getNext();
+        boolean joinLeft = floor != null && floor.getValue() == i && (long) floor.getHi() + 1 == k;
+        boolean joinRight = ceiling != null && ceiling.getValue() == i && (long) ceiling.getLo() - 1 == k;
+        ++size;
+
+        if (joinLeft && joinRight) {
+            int hi = ceiling.getHi();
+            int totalBalancing = removeRun(ceiling);
+            floor.setHi(hi);
+            updateAggregatesUp(floor);
+            return totalBalancing;
+        }
+        if (joinLeft) {
+            floor.setHi(k);
+            updateAggregatesUp(floor);
+            return 1;
+        }
+        if (joinRight) {
+            ceiling.setLo(k);
+            updateAggregatesUp(ceiling);
+            return 1;
+        }
+        return insertRunAfter(floor, new RunNode(k, k, i));
+    }
+
+    /**
+     * deletes the item with key k from the tree, if it is there, splitting the run that contains it if needed.
+     * returns the number of runs which required rebalancing operations (demotions or rotations),
+     * plus one for the run that was shrunk, split or removed.
+     * returns -1 if an item with key k was not found in the tree.
+     * time complexity: O(log(runs))
+     */
+    public int delete(int k) {
+        RunNode run = floorRun(k);
+        if (run == null || run.getHi() < k) return -1;
+        --size;
+
+        if (run.getLo() == run.getHi()) {
+            return removeRun(run);
+        }
+        if (run.getLo() == k) {
+            run.setLo(k + 1);
+            updateAggregatesUp(run);
+            return 1;
+        }
+        if (run.getHi() == k) {
+            run.setHi(k - 1);
+            updateAggregatesUp(run);
+            return 1;
+        }
+        RunNode rest = new RunNode(k + 1, run.getHi(), run.getValue());
+        run.setHi(k - 1);
+        updateAggregatesUp(run);
+        return insertRunAfter(run, rest);
+    }
+
+    /**
+     * Returns the info of the item with the smallest key in the tree, or null if the tree is empty
+     * time complexity: O(1)
+     */
+    public Boolean min() {
+        return min == null ? null : min.getValue();
+    }
+
+    /**
+     * Returns the info of the item with the largest key in the tree, or null if the tree is empty
+     * time complexity: O(1)
+     */
+    public Boolean max() {
+        return max == null ? null : max.getValue();
+    }
+
+    /**
+     * Returns a sorted array which contains all keys in the tree, or an empty array if the tree is empty.
+     * time complexity: O(size)
+     */
+    public int[] keysToArray() {
+        int[] arr = new int[size];
+        int i = 0;
+        for (RunNode run = min; run != null; run = run.getNext()) {
+            for (int j = 0; j < run.length(); ++j) {
+                arr[i++] = run.getLo() + j;
+            }
+        }
+        return arr;
+    }
+
+    /**
+     * Returns an array which contains all info in the tree, sorted by their respective keys,
+     * or an empty array if the tree is empty.
+     * time complexity: O(size)
+     */
+    public boolean[] infoToArray() {
+        boolean[] arr = new boolean[size];
+        int i = 0;
+        for (RunNode run = min; run != null; run = run.getNext()) {
+            boolean value = run.getValue();
+            for (int j = 0; j < run.length(); ++j) {
+                arr[i++] = value;
+            }
+        }
+        return arr;
+    }
+
+    /**
+     * Returns the number of keys in the tree.
+     * time complexity: O(1)
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of runs (nodes) in the tree.
+     * time complexity: O(1)
+     */
+    public int runCount() {
+        return runs;
+    }
+
+    /**
+     * Returns the root run, or null if the tree is empty
+     * time complexity: O(1)
+     */
+    public RunNode getRoot() {
+        return root;
+    }
+
+    /**
+     * calculates the xor of the values of the keys which are smaller or equal to k.
+     * unlike AVLTree.prefixXor, k does not have to be in the tree.
+     * time complexity: O(log(runs))
+     */
+    public boolean prefixXor(int k) {
+        boolean xor = false;
+        RunNode node = root;
+        while (node != null) {
+            if (k < node.getLo()) {
+                node = node.getLeft();
+            } else if (k > node.getHi()) {
+                xor ^= xorOf(node.getLeft()) ^ node.runXor();
+                node = node.getRight();
+            } else {
+                return xor ^ xorOf(node.getLeft()) ^ (node.getValue() && ((k - node.getLo()) & 1) == 0);
+            }
+        }
+        return xor;
+    }
+
+    /**
+     * Prints the runs in order, indented by their depth in the tree.
+     */
+    public void printTree() {
+        for (RunNode run = min; run != null; run = run.getNext()) {
+            int depth = 0;
+            for (RunNode node = run.getParent(); node != null; node = node.getParent()) ++depth;
+            StringBuilder line = new StringBuilder();
+            for (int i = 0; i < depth; ++i) line.append("    ");
+            System.out.println(line.append(run));
+        }
+    }
+
+    /**
+     * Finds the run with the largest lo that is smaller or equal to k.
+     * time complexity: O(log(runs))
+     * @return the run, or null if every run starts after k
+     */
+    private RunNode floorRun(int k) {
+        RunNode node = root;
+        RunNode floor = null;
+        while (node != null) {
+            if (node.getLo() <= k) {
+                floor = node;
+                if (node.getHi() >= k) return node;
+                node = node.getRight();
+            } else {
+                node = node.getLeft();
+            }
+        }
+        return floor;
+    }
+
+    /**
+     * Links a new run into the tree directly after prev in key order (or as the minimum if prev is null)
+     * and rebalances.
+     * time complexity: O(log(runs))
+     * @return the number of runs which required rebalancing operations, including the new one
+     */
+    private int insertRunAfter(RunNode prev, RunNode node) {
+        ++runs;
+        if (root == null) {
+            root = min = max = node;
+            return 1;
+        }
+        RunNode parent;
+        if (prev == null) {
+            parent = min;
+            parent.setLeft(node);
+        } else if (prev.getRight() == null) {
+            parent = prev;
+            parent.setRight(node);
+        } else {
+            parent = prev.getNext();
+            parent.setLeft(node);
+        }
+        node.setParent(parent);
+
+        RunNode next = prev == null ? min : prev.getNext();
+        node.setPrev(prev);
+        node.setNext(next);
+        if (prev != null) prev.setNext(node);
+        else min = node;
+        if (next != null) next.setPrev(node);
+        else max = node;
+
+        return 1 + rebalanceUp(parent);
+    }
+
+    /**
+     * Unlinks a run from the tree and rebalances.
+     * If the run has two children, its successor's run is moved into it and the successor's node is removed.
+     * time complexity: O(log(runs))
+     * @return the number of runs which required rebalancing operations, plus one for the removed run
+     */
+    private int removeRun(RunNode node) {
+        --runs;
+        if (node.getLeft() != null && node.getRight() != null) {
+            RunNode succ = node.getNext();
+            node.setLo(succ.getLo());
+            node.setHi(succ.getHi());
+            node.setValue(succ.getValue());
+            node = succ;
+        }
+        RunNode next = node.getNext();
+        RunNode prev = node.getPrev();
+        if (next != null) next.setPrev(prev);
+        else max = prev;
+        if (prev != null) prev.setNext(next);
+        else min = next;
+
+        RunNode child = node.getLeft() != null ? node.getLeft() : node.getRight();
+        RunNode parent = node.getParent();
+        if (child != null) child.setParent(parent);
+        if (parent == null) root = child;
+        else if (parent.getLeft() == node) parent.setLeft(child);
+        else parent.setRight(child);
+        return 1 + rebalanceUp(parent);
+    }
+
+    /**
+     * Walks from node to the root, updating heights and aggregates and rotating where needed.
+     * time complexity: O(log(runs))
+     * @return the number of nodes whose height changed or which were rotated
+     */
+    private int rebalanceUp(RunNode node) {
+        int totalBalancing = 0;
+        while (node != null) {
+            if (updateHeight(node)) ++totalBalancing;
+            node.updateAggregates();
+            int balance = node.balanceFactor();
+            if (balance == 2 || balance == -2) {
+                node = dispatchRotation(node);
+                ++totalBalancing;
+            }
+            node = node.getParent();
+        }
+        return totalBalancing;
+    }
+
+    /**
+     * updates the aggregates of all the nodes in the path from node to the root.
+     * time complexity: O(log(runs))
+     */
+    private void updateAggregatesUp(RunNode node) {
+        while (node != null) {
+            node.updateAggregates();
+            node = node.getParent();
+        }
+    }
+
+    /**
+     * Choose which rotation to execute on the node
+     * time complexity: O(1)
+     * @return the root of the rotated subtree
+     */
+    private RunNode dispatchRotation(RunNode node) {
+        if (node.balanceFactor() > 0) {
+            if (node.getLeft().balanceFactor() < 0) {
+                rotateLeft(node.getLeft());
+            }
+            return rotateRight(node);
+        }
+        if (node.getRight().balanceFactor() > 0) {
+            rotateRight(node.getRight());
+        }
+        return rotateLeft(node);
+    }
+
+    /**
+     * time complexity: O(1)
+     * @return the new root of the subtree
+     */
+    private RunNode rotateRight(RunNode node) {
+        RunNode pivot = node.getLeft();
+        node.setLeft(pivot.getRight());
+        if (pivot.getRight() != null) pivot.getRight().setParent(node);
+        pivot.setRight(node);
+        replaceChild(node, pivot);
+        node.setParent(pivot);
+        updateHeight(node);
+        updateHeight(pivot);
+        node.updateAggregates();
+        pivot.updateAggregates();
+        return pivot;
+    }
+
+    /**
+     * time complexity: O(1)
+     * @return the new root of the subtree
+     */
+    private RunNode rotateLeft(RunNode node) {
+        RunNode pivot = node.getRight();
+        node.setRight(pivot.getLeft());
+        if (pivot.getLeft() != null) pivot.getLeft().setParent(node);
+        pivot.setLeft(node);
+        replaceChild(node, pivot);
+        node.setParent(pivot);
+        updateHeight(node);
+        updateHeight(pivot);
+        node.updateAggregates();
+        pivot.updateAggregates();
+        return pivot;
+    }
+
+    /**
+     * Puts replacement where node was under node's parent (or as the root).
+     * time complexity: O(1)
+     */
+    private void replaceChild(RunNode node, RunNode replacement) {
+        RunNode parent = node.getParent();
+        replacement.setParent(parent);
+        if (parent == null) root = replacement;
+        else if (parent.getLeft() == node) parent.setLeft(replacement);
+        else parent.setRight(replacement);
+    }
+
+    /**
+     * updates the height of node according to its children
+     * time complexity: O(1)
+     * @return whether the height was updated
+     */
+    private static boolean updateHeight(RunNode node) {
+        int newHeight = 1 + Math.max(heightOf(node.getLeft()), heightOf(node.getRight()));
+        boolean changed = node.getHeight() != newHeight;
+        node.setHeight(newHeight);
+        return changed;
+    }
+
+    private static int heightOf(RunNode node) {
+        return node == null ? -1 : node.getHeight();
+    }
+
+    private static int countOf(RunNode node) {
+        return node == null ? 0 : node.getCount();
+    }
+
+    private static boolean xorOf(RunNode node) {
+        return node != null && node.getXor();
+    }
+
+    /**
+     * public class RunNode
+     * <p>
+     * A node of the interval tree, holding the run [lo, hi] of keys that all have the same value, the number of
+     * keys in its subtree and the xor of the values of all keys in its subtree.
+     * All methods here are of time complexity O(1)
+     */
+    public static class RunNode {
+        private int lo;
+        private int hi;
+        private boolean val;
+        private int height;
+        private int count;
+        private boolean xor;
+        private RunNode parent;
+        private RunNode left;
+        private RunNode right;
+        private RunNode next;
+        private RunNode prev;
+
+        /**
+         * Create leaf holding the run [lo, hi] with the given value
+         */
+        public RunNode(int lo, int hi, boolean val) {
+            this.lo = lo;
+            this.hi = hi;
+            this.val = val;
+            this.height = 0;
+            updateAggregates();
+        }
+
+        public int getLo() {
+            return lo;
+        }
+
+        public void setLo(int lo) {
+            this.lo = lo;
+        }
+
+        public int getHi() {
+            return hi;
+        }
+
+        public void setHi(int hi) {
+            this.hi = hi;
+        }
+
+        public boolean getValue() {
+            return val;
+        }
+
+        public void setValue(boolean val) {
+            this.val = val;
+        }
+
+        // the number of keys in this run
+        public int length() {
+            return hi - lo + 1;
+        }
+
+        // the xor of the values of the keys in this run
+        public boolean runXor() {
+            return val && (length() & 1) == 1;
+        }
+
+        // the number of keys in this subtree
+        public int getCount() {
+            return count;
+        }
+
+        // the xor of the values of all keys in this subtree
+        public boolean getXor() {
+            return xor;
+        }
+
+        // recomputes count and xor from the children
+        public void updateAggregates() {
+            this.count = countOf(left) + length() + countOf(right);
+            this.xor = xorOf(left) ^ runXor() ^ xorOf(right);
+        }
+
+        public RunNode getLeft() {
+            return left;
+        }
+
+        public void setLeft(RunNode node) {
+            this.left = node;
+        }
+
+        public RunNode getRight() {
+            return right;
+        }
+
+        public void setRight(RunNode node) {
+            this.right = node;
+        }
+
+        public RunNode getParent() {
+            return parent;
+        }
+
+        public void setParent(RunNode node) {
+            this.parent = node;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public void setHeight(int height) {
+            this.height = height;
+        }
+
+        public int balanceFactor() {
+            return heightOf(left) - heightOf(right);
+        }
+
+        public RunNode getNext() {
+            return next;
+        }
+
+        public void setNext(RunNode next) {
+            this.next = next;
+        }
+
+        public RunNode getPrev() {
+            return prev;
+        }
+
+        public void setPrev(RunNode prev) {
+            this.prev = prev;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + lo + ".." + hi + "]=" + val;
+        }
+    }
+}
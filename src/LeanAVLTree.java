@@ -0,0 +1,419 @@
+/**
+ * public class LeanAVLTree
+ * <p>
+ * An AVL tree with integer keys and boolean values whose nodes hold only a key, a value, a height, the xor of
+ * their subtree and two children. There are no parent pointers, no next/prev threads and no virtual nodes:
+ * children are plain null references.
+ * <p>
+ * insert and delete record the search path in an explicit stack and rebalance on the way back up it, so they
+ * need no parent pointers. min, max, successor, keysToArray and infoToArray walk the tree instead of the
+ * threads, which makes min, max and successor O(log(size)) instead of O(1).
+ * <p>
+ * insert and delete return the same rebalancing counts as AVLTree's.
+ */
+public class LeanAVLTree implements PrefixXorTree {
+    /**
+     * an AVL tree of 2^31 nodes is less than 46 levels deep
+     */
+    private static final int MAX_DEPTH = 48;
+    /**
+     * the shallow sizes of the tree and of a node, for heapFootprint
+     */
+    private static final long TREE_BYTES = HeapFootprint.shallowBytes(LeanAVLTree.class);
+    private static final long NODE_BYTES = HeapFootprint.shallowBytes(LeanNode.class);
+    /**
+     * The root of the tree
+     */
+    private LeanNode root;
+    /**
+     * the amount of nodes in the tree
+     */
+    private int size;
+    /**
+     * the search path of the running insert or delete, path[0] is the root
+     */
+    private final LeanNode[] path = new LeanNode[MAX_DEPTH];
+
+    /**
+     * returns true if and only if the tree is empty
+     * time complexity: O(1)
+     */
+    public boolean empty() {
+        return size == 0;
+    }
+
+    /**
+     * returns the info of an item with key k if it exists in the tree, otherwise returns null
+     * time complexity: O(log(size))
+     */
+    public Boolean search(int k) {
+        LeanNode node = root;
+        while (node != null) {
+            if (node.getKey() == k) return node.getValue();
+            node = node.getKey() > k ? node.getLeft() : node.getRight();
+        }
+        return null;
+    }
+
+    /**
+     * inserts an item with key k and info i to the tree.
+     * returns the number of nodes which require rebalancing operations (the new node and a rotation, if any),
+     * or -1 if an item with key k already exists in the tree.
+     * time complexity: O(log(size))
+     */
+    public int insert(int k, boolean i) {
+        int depth = 0;
+        LeanNode node = root;
+        while (node != null) {
+            if (node.getKey() == k) return -1;
+            path[depth++] = node;
+            node = node.getKey() > k ? node.getLeft() : node.getRight();
+        }
+        node = new LeanNode(k, i);
+        ++size;
+        if (depth == 0) {
+            root = node;
+            return 1;
+        }
+        LeanNode parent = path[depth - 1];
+        if (parent.getKey() > k) parent.setLeft(node);
+        else parent.setRight(node);
+        return 1 + rebalancePath(depth, true);
+    }
+
+    /**
+     * deletes the item with key k from the tree, if it is there.
+     * a node with two children takes the key and info of its successor, whose node is removed instead.
+     * returns the number of nodes which required rebalancing operations (the removed node and the rotations),
+     * or -1 if an item with key k was not found in the tree.
+     * time complexity: O(log(size))
+     */
+    public int delete(int k) {
+        int depth = 0;
+        LeanNode node = root;
+        while (node != null && node.getKey() != k) {
+            path[depth++] = node;
+            node = node.getKey() > k ? node.getLeft() : node.getRight();
+        }
+        if (node == null) return -1;
+
+        if (node.getLeft() != null && node.getRight() != null) {
+            path[depth++] = node;
+            LeanNode succ = node.getRight();
+            while (succ.getLeft() != null) {
+                path[depth++] = succ;
+                succ = succ.getLeft();
+            }
+            node.set(succ.getKey(), succ.getValue());
+            node = succ;
+        }
+        LeanNode child = node.getLeft() != null ? node.getLeft() : node.getRight();
+        replaceChild(depth, node, child);
+        --size;
+        return 1 + rebalancePath(depth, false);
+    }
+
+    /**
+     * Returns the info of the item with the smallest key in the tree, or null if the tree is empty
+     * time complexity: O(log(size))
+     */
+    public Boolean min() {
+        LeanNode node = root;
+        if (node == null) return null;
+        while (node.getLeft() != null) node = node.getLeft();
+        return node.getValue();
+    }
+
+    /**
+     * Returns the info of the item with the largest key in the tree, or null if the tree is empty
+     * time complexity: O(log(size))
+     */
+    public Boolean max() {
+        LeanNode node = root;
+        if (node == null) return null;
+        while (node.getRight() != null) node = node.getRight();
+        return node.getValue();
+    }
+
+    /**
+     * Returns a sorted array which contains all keys in the tree, or an empty array if the tree is empty.
+     * time complexity: O(size)
+     */
+    public int[] keysToArray() {
+        int[] arr = new int[size];
+        LeanNode[] stack = new LeanNode[MAX_DEPTH];
+        int top = 0;
+        int i = 0;
+        for (LeanNode node = root; node != null || top > 0; node = node.getRight()) {
+            for (; node != null; node = node.getLeft()) stack[top++] = node;
+            node = stack[--top];
+            arr[i++] = node.getKey();
+        }
+        return arr;
+    }
+
+    /**
+     * Returns an array which contains all info in the tree, sorted by their respective keys,
+     * or an empty array if the tree is empty.
+     * time complexity: O(size)
+     */
+    public boolean[] infoToArray() {
+        boolean[] arr = new boolean[size];
+        LeanNode[] stack = new LeanNode[MAX_DEPTH];
+        int top = 0;
+        int i = 0;
+        for (LeanNode node = root; node != null || top > 0; node = node.getRight()) {
+            for (; node != null; node = node.getLeft()) stack[top++] = node;
+            node = stack[--top];
+            arr[i++] = node.getValue();
+        }
+        return arr;
+    }
+
+    /**
+     * Returns the number of nodes in the tree.
+     * time complexity: O(1)
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns an estimate of the heap retained by the tree, the total of heapFootprint().
+     * time complexity: O(1)
+     */
+    public long estimateRetainedBytes() {
+        return heapFootprint().total();
+    }
+
+    /**
+     * Returns the estimated heap retained by the tree, in parts: the tree object with its path stack, and the
+     * nodes. there are no virtual nodes, threads, parent pointers or Boolean references to report.
+     * time complexity: O(1)
+     */
+    public HeapFootprint heapFootprint() {
+        return new HeapFootprint()
+                .part(HeapFootprint.TREE, TREE_BYTES + HeapFootprint.referenceArrayBytes(MAX_DEPTH))
+                .part(HeapFootprint.REAL_NODES, size * NODE_BYTES);
+    }
+
+    /**
+     * Returns the root node, or null if the tree is empty
+     * time complexity: O(1)
+     */
+    public LeanNode getRoot() {
+        return root;
+    }
+
+    /**
+     * given a node in the tree, return its successor (or null if it doesn't exist), found by a search from the
+     * root for the smallest key larger than node's.
+     * time complexity: O(log(size))
+     */
+    public LeanNode successor(LeanNode node) {
+        LeanNode succ = null;
+        LeanNode current = root;
+        while (current != null) {
+            if (current.getKey() > node.getKey()) {
+                succ = current;
+                current = current.getLeft();
+            } else {
+                current = current.getRight();
+            }
+        }
+        return succ;
+    }
+
+    /**
+     * Given an argument k which is a key in the tree, calculate the xor of the values of nodes whose keys are
+     * smaller or equal to k.
+     * precondition: this.search(k) != null
+     * time complexity: O(log(size))
+     */
+    public boolean prefixXor(int k) {
+        boolean xor = false;
+        LeanNode node = root;
+        while (node.getKey() != k) {
+            if (node.getKey() < k) {
+                xor ^= xorOf(node.getLeft()) ^ node.getValue();
+                node = node.getRight();
+            } else {
+                node = node.getLeft();
+            }
+        }
+        return xor ^ xorOf(node.getLeft()) ^ node.getValue();
+    }
+
+    /**
+     * Prints the nodes in order, indented by their depth in the tree.
+     */
+    public void printTree() {
+        LeanNode[] stack = new LeanNode[MAX_DEPTH];
+        int top = 0;
+        for (LeanNode node = root; node != null || top > 0; node = node.getRight()) {
+            for (; node != null; node = node.getLeft()) stack[top++] = node;
+            node = stack[--top];
+            StringBuilder line = new StringBuilder();
+            for (int i = 0; i < top; ++i) line.append("    ");
+            System.out.println(line.append(node));
+        }
+    }
+
+    /**
+     * Replaces node, the child of path[depth - 1] (or the root if depth is 0), with replacement.
+     * time complexity: O(1)
+     */
+    private void replaceChild(int depth, LeanNode node, LeanNode replacement) {
+        if (depth == 0) root = replacement;
+        else if (path[depth - 1].getLeft() == node) path[depth - 1].setLeft(replacement);
+        else path[depth - 1].setRight(replacement);
+    }
+
+    /**
+     * Walks path[0..depth) bottom up, fixing heights and xors and rotating unbalanced nodes.
+     * after an insert one rotation rebalances the tree, and heights above a node whose height didn't change
+     * stay the same, so only the xors are updated from there on.
+     * time complexity: O(log(size))
+     * @return the number of rotations (a double rotation counts once)
+     */
+    private int rebalancePath(int depth, boolean afterInsert) {
+        int rotations = 0;
+        boolean heightsDone = false;
+        for (int i = depth - 1; i >= 0; --i) {
+            LeanNode node = path[i];
+            path[i] = null;
+            if (heightsDone) {
+                node.updateXor();
+                continue;
+            }
+            int oldHeight = node.getHeight();
+            node.update();
+            if (Math.abs(node.balanceFactor()) == 2) {
+                replaceChild(i, node, rebalance(node));
+                ++rotations;
+                heightsDone = afterInsert;
+            } else if (node.getHeight() == oldHeight) {
+                heightsDone = true;
+            }
+        }
+        return rotations;
+    }
+
+    /**
+     * Rotates the subtree of node, whose balance factor is 2 or -2, back into balance.
+     * time complexity: O(1)
+     * @return the new root of the subtree
+     */
+    private static LeanNode rebalance(LeanNode node) {
+        if (node.balanceFactor() > 0) {
+            if (node.getLeft().balanceFactor() < 0) node.setLeft(rotateLeft(node.getLeft()));
+            return rotateRight(node);
+        }
+        if (node.getRight().balanceFactor() > 0) node.setRight(rotateRight(node.getRight()));
+        return rotateLeft(node);
+    }
+
+    private static LeanNode rotateLeft(LeanNode node) {
+        LeanNode pivot = node.getRight();
+        node.setRight(pivot.getLeft());
+        pivot.setLeft(node);
+        node.update();
+        pivot.update();
+        return pivot;
+    }
+
+    private static LeanNode rotateRight(LeanNode node) {
+        LeanNode pivot = node.getLeft();
+        node.setLeft(pivot.getRight());
+        pivot.setRight(node);
+        node.update();
+        pivot.update();
+        return pivot;
+    }
+
+    private static int heightOf(LeanNode node) {
+        return node == null ? -1 : node.getHeight();
+    }
+
+    private static boolean xorOf(LeanNode node) {
+        return node != null && node.getXorOfChildren();
+    }
+
+    /**
+     * public class LeanNode
+     * <p>
+     * A node of the lean tree.
+     * All methods here are of time complexity O(1)
+     */
+    public static class LeanNode {
+        private int key;
+        private boolean val;
+        private boolean xorOfChildren;
+        private byte height;
+        private LeanNode left;
+        private LeanNode right;
+
+        public LeanNode(int key, boolean val) {
+            this.key = key;
+            this.val = val;
+            this.xorOfChildren = val;
+        }
+
+        public int getKey() {
+            return key;
+        }
+
+        public boolean getValue() {
+            return val;
+        }
+
+        private void set(int key, boolean val) {
+            this.key = key;
+            this.val = val;
+        }
+
+        public LeanNode getLeft() {
+            return left;
+        }
+
+        public void setLeft(LeanNode node) {
+            this.left = node;
+        }
+
+        public LeanNode getRight() {
+            return right;
+        }
+
+        public void setRight(LeanNode node) {
+            this.right = node;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public int balanceFactor() {
+            return heightOf(left) - heightOf(right);
+        }
+
+        // the xor of the values in this subtree
+        public boolean getXorOfChildren() {
+            return xorOfChildren;
+        }
+
+        public void updateXor() {
+            this.xorOfChildren = val ^ xorOf(left) ^ xorOf(right);
+        }
+
+        // recomputes the height and the xor from the children
+        public void update() {
+            this.height = (byte) (1 + Math.max(heightOf(left), heightOf(right)));
+            updateXor();
+        }
+
+        @Override
+        public String toString() {
+            return "(" + key + ")";
+        }
+    }
+}
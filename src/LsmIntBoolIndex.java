@@ -0,0 +1,412 @@
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * public class LsmIntBoolIndex
+ * <p>
+ * A write-optimized map from integer keys to boolean values. Writes go into a bounded AVLTree memtable,
+ * which is frozen into an immutable sorted run once it fills up, and runs are merged into one by a compaction
+ * that runs on an executor. Deletes are written as tombstones which shadow older values until compaction
+ * drops them.
+ * <p>
+ * Reads merge the memtable and all runs, newest first.
+ * <p>
+ * The index has a single writer and is not thread-safe: put, remove, flush and the reads all touch the
+ * memtable, so they must be called from one thread (or under one external lock). Only compaction runs on
+ * another thread, and reads and writes may run alongside it, since it works on the immutable runs and swaps
+ * the run list under a lock. A compaction that fails leaves the runs as they were, and the next flush that
+ * reaches compactionTrigger starts a new one.
+ */
+public class LsmIntBoolIndex {
+    /**
+     * state of an entry in a run
+     */
+    private static final byte FALSE = 0;
+    private static final byte TRUE = 1;
+    private static final byte TOMBSTONE = 2;
+
+    /**
+     * live writes since the last flush
+     */
+    private AVLTree memtable = new AVLTree();
+    /**
+     * deletes since the last flush, disjoint from the keys of memtable
+     */
+    private AVLTree memTombstones = new AVLTree();
+    /**
+     * the frozen runs, newest first. replaced as a whole, never modified in place
+     */
+    private volatile Run[] runs = new Run[0];
+    /**
+     * the amount of entries (writes and deletes) the memtable holds before it is flushed
+     */
+    private final int memtableLimit;
+    /**
+     * the amount of runs that triggers a compaction
+     */
+    private final int compactionTrigger;
+    private final Executor compactor;
+    private boolean compacting;
+
+    /**
+     * constructs an empty index flushing every 65536 entries and compacting on the common pool at 4 runs
+     * time complexity: O(1)
+     */
+    public LsmIntBoolIndex() {
+        this(1 << 16, 4, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * constructs an empty index
+     * time complexity: O(1)
+     * @param memtableLimit the amount of entries the memtable holds before it is frozen into a run
+     * @param compactionTrigger the amount of runs at which they are all merged into one
+     * @param compactor runs compactions, a direct executor (Runnable::run) compacts on the writing thread
+     */
+    public LsmIntBoolIndex(int memtableLimit, int compactionTrigger, Executor compactor) {
+        if (memtableLimit <= 0) throw new IllegalArgumentException("memtableLimit must be positive: " + memtableLimit);
+        if (compactionTrigger < 2) throw new IllegalArgumentException("compactionTrigger must be at least 2: " + compactionTrigger);
+        this.memtableLimit = memtableLimit;
+        this.compactionTrigger = compactionTrigger;
+        this.compactor = compactor;
+    }
+
+    /**
+     * maps k to v, replacing its previous value if there was one. an overwrite changes the value in place with a
+     * single descent of the memtable, and the tombstones are only searched when there are any.
+     * time complexity: O(log(memtableLimit)) amortized, plus O(memtableLimit) when the memtable is flushed
+     */
+    public void put(int k, boolean v) {
+        if (!memTombstones.empty()) memTombstones.delete(k);
+        memtable.put(k, v);
+        flushIfFull();
+    }
+
+    /**
+     * removes the mapping of k, if there is one, by writing a tombstone.
+     * time complexity: O(log(memtableLimit)) amortized, plus O(memtableLimit) when the memtable is flushed
+     */
+    public void remove(int k) {
+        if (!memtable.empty()) memtable.delete(k);
+        memTombstones.insert(k, false);
+        flushIfFull();
+    }
+
+    /**
+     * returns the value of k, or null if it is not mapped
+     * time complexity: O(log(memtableLimit) + runs * log(size))
+     */
+    public Boolean search(int k) {
+        if (memTombstones.search(k) != null) return null;
+        Boolean value = memtable.search(k);
+        if (value != null) return value;
+        for (Run run : runs) {
+            int i = Arrays.binarySearch(run.keys, k);
+            if (i >= 0) return run.states[i] == TOMBSTONE ? null : run.states[i] == TRUE;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the value of the smallest mapped key, or null if the index is empty
+     * time complexity: O(runs) plus the tombstones skipped on the way
+     */
+    public Boolean min() {
+        Cursor cursor = new Cursor(true);
+        return cursor.advance() ? cursor.value() : null;
+    }
+
+    /**
+     * Returns the value of the largest mapped key, or null if the index is empty
+     * time complexity: O(runs) plus the tombstones skipped on the way
+     */
+    public Boolean max() {
+        Cursor cursor = new Cursor(false);
+        return cursor.advance() ? cursor.value() : null;
+    }
+
+    /**
+     * Returns the xor of the values of the mapped keys which are smaller or equal to k.
+     * when everything is in a single run this takes one binary search, otherwise the sources are merged.
+     * time complexity: O(log(size)) when compacted, O(size) otherwise
+     */
+    public boolean prefixXor(int k) {
+        Run[] current = runs;
+        if (memtable.empty() && memTombstones.empty() && current.length == 1) {
+            Run run = current[0];
+            int i = Arrays.binarySearch(run.keys, k);
+            int end = i >= 0 ? i + 1 : -i - 1;
+            return end > 0 && run.prefixXor[end - 1];
+        }
+        boolean xor = false;
+        Cursor cursor = new Cursor(true);
+        while (cursor.advance() && cursor.key() <= k) xor ^= cursor.value();
+        return xor;
+    }
+
+    /**
+     * Returns a sorted array which contains all mapped keys
+     * time complexity: O(size * runs)
+     */
+    public int[] keysToArray() {
+        int[] arr = new int[16];
+        int n = 0;
+        Cursor cursor = new Cursor(true);
+        while (cursor.advance()) {
+            if (n == arr.length) arr = Arrays.copyOf(arr, n << 1);
+            arr[n++] = cursor.key();
+        }
+        return Arrays.copyOf(arr, n);
+    }
+
+    /**
+     * Returns an array which contains the values of all mapped keys, sorted by their respective keys
+     * time complexity: O(size * runs)
+     */
+    public boolean[] infoToArray() {
+        boolean[] arr = new boolean[16];
+        int n = 0;
+        Cursor cursor = new Cursor(true);
+        while (cursor.advance()) {
+            if (n == arr.length) arr = Arrays.copyOf(arr, n << 1);
+            arr[n++] = cursor.value();
+        }
+        return Arrays.copyOf(arr, n);
+    }
+
+    /**
+     * Returns a cursor over the mapped keys, ascending or descending.
+     * the index must not be written to while the cursor is in use.
+     * time complexity: O(runs)
+     */
+    public Cursor cursor(boolean ascending) {
+        return new Cursor(ascending);
+    }
+
+    /**
+     * Returns the number of frozen runs.
+     * time complexity: O(1)
+     */
+    public int runCount() {
+        return runs.length;
+    }
+
+    /**
+     * Freezes the memtable into a run, even if it isn't full.
+     * time complexity: O(memtable size)
+     */
+    public void flush() {
+        if (memtable.empty() && memTombstones.empty()) return;
+        Run run = freeze(memtable, memTombstones);
+        memtable = new AVLTree();
+        memTombstones = new AVLTree();
+        boolean compact;
+        synchronized (this) {
+            Run[] current = runs;
+            Run[] next = new Run[current.length + 1];
+            next[0] = run;
+            System.arraycopy(current, 0, next, 1, current.length);
+            runs = next;
+            compact = !compacting && next.length >= compactionTrigger;
+            if (compact) compacting = true;
+        }
+        if (!compact) return;
+        try {
+            compactor.execute(this::compact);
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                compacting = false;
+            }
+            throw e;
+        }
+    }
+
+    private void flushIfFull() {
+        if (memtable.size() + memTombstones.size() >= memtableLimit) flush();
+    }
+
+    /**
+     * Drains the memtable over its next-thread (through keysToArray and infoToArray) into a run,
+     * merging in the tombstones.
+     * time complexity: O(memtable size)
+     */
+    private static Run freeze(AVLTree memtable, AVLTree tombstones) {
+        int[] keys = memtable.keysToArray();
+        boolean[] values = memtable.infoToArray();
+        int[] deleted = tombstones.keysToArray();
+        int[] runKeys = new int[keys.length + deleted.length];
+        byte[] states = new byte[runKeys.length];
+        int i = 0, j = 0, n = 0;
+        while (i < keys.length || j < deleted.length) {
+            if (j == deleted.length || (i < keys.length && keys[i] < deleted[j])) {
+                runKeys[n] = keys[i];
+                states[n++] = values[i++] ? TRUE : FALSE;
+            } else {
+                runKeys[n] = deleted[j++];
+                states[n++] = TOMBSTONE;
+            }
+        }
+        return new Run(runKeys, states);
+    }
+
+    /**
+     * Merges all the runs that exist when it starts into one, dropping shadowed entries and, since nothing is
+     * older than the merged runs, tombstones. Runs flushed in the meantime are kept in front of the result.
+     * compacting is cleared even if the merge throws, so later flushes can compact again.
+     * time complexity: O(total run size * runs)
+     */
+    private void compact() {
+        try {
+            Run[] merging = runs;
+            int[] keys = new int[16];
+            byte[] states = new byte[16];
+            int n = 0;
+            Cursor cursor = new Cursor(true, null, null, merging);
+            while (cursor.advance()) {
+                if (n == keys.length) {
+                    keys = Arrays.copyOf(keys, n << 1);
+                    states = Arrays.copyOf(states, n << 1);
+                }
+                keys[n] = cursor.key();
+                states[n++] = cursor.value() ? TRUE : FALSE;
+            }
+            Run merged = new Run(Arrays.copyOf(keys, n), Arrays.copyOf(states, n));
+            synchronized (this) {
+                Run[] current = runs;
+                int newer = current.length - merging.length;
+                Run[] next = new Run[newer + (n > 0 ? 1 : 0)];
+                System.arraycopy(current, 0, next, 0, newer);
+                if (n > 0) next[newer] = merged;
+                runs = next;
+            }
+        } finally {
+            synchronized (this) {
+                compacting = false;
+            }
+        }
+    }
+
+    /**
+     * an immutable sorted run of entries, with the prefix xors of its live values
+     */
+    private static final class Run {
+        final int[] keys;
+        final byte[] states;
+        final boolean[] prefixXor;
+
+        Run(int[] keys, byte[] states) {
+            this.keys = keys;
+            this.states = states;
+            this.prefixXor = new boolean[keys.length];
+            boolean xor = false;
+            for (int i = 0; i < keys.length; ++i) {
+                xor ^= states[i] == TRUE;
+                prefixXor[i] = xor;
+            }
+        }
+    }
+
+    /**
+     * public class Cursor
+     * <p>
+     * Walks the mapped keys in order by merging the memtable (over its next/prev threads) with the runs.
+     * when several sources hold a key the newest one decides, and tombstoned keys are skipped.
+     */
+    public final class Cursor {
+        private final boolean ascending;
+        private AVLTree.AVLNode memNode;
+        private AVLTree.AVLNode tombNode;
+        private final Run[] sources;
+        private final int[] positions;
+        private int key;
+        private boolean value;
+
+        private Cursor(boolean ascending) {
+            this(ascending, memtable, memTombstones, runs);
+        }
+
+        private Cursor(boolean ascending, AVLTree mem, AVLTree tombstones, Run[] sources) {
+            this.ascending = ascending;
+            this.memNode = first(mem);
+            this.tombNode = first(tombstones);
+            this.sources = sources;
+            this.positions = new int[sources.length];
+            if (!ascending) {
+                for (int i = 0; i < sources.length; ++i) positions[i] = sources[i].keys.length - 1;
+            }
+        }
+
+        private AVLTree.AVLNode first(AVLTree tree) {
+            if (tree == null || tree.empty()) return null;
+            AVLTree.AVLNode node = tree.getRoot();
+            AVLTree.Direction side = ascending ? AVLTree.Direction.Left : AVLTree.Direction.Right;
+            while (node.getChild(side).isRealNode()) node = node.getChild(side);
+            return node;
+        }
+
+        /**
+         * moves to the next mapped key
+         * time complexity: O(runs) amortized, plus the shadowed entries and tombstones skipped
+         * @return false once there are no more keys
+         */
+        public boolean advance() {
+            while (true) {
+                boolean found = false;
+                int best = 0;
+                if (memNode != null) {
+                    best = memNode.getKey();
+                    found = true;
+                }
+                if (tombNode != null && (!found || before(tombNode.getKey(), best))) {
+                    best = tombNode.getKey();
+                    found = true;
+                }
+                for (int i = 0; i < sources.length; ++i) {
+                    if (inRange(i) && (!found || before(sources[i].keys[positions[i]], best))) {
+                        best = sources[i].keys[positions[i]];
+                        found = true;
+                    }
+                }
+                if (!found) return false;
+
+                byte state = -1;
+                if (memNode != null && memNode.getKey() == best) {
+                    state = memNode.getValue() ? TRUE : FALSE;
+                    memNode = ascending ? memNode.getNext() : memNode.getPrev();
+                }
+                if (tombNode != null && tombNode.getKey() == best) {
+                    state = TOMBSTONE;
+                    tombNode = ascending ? tombNode.getNext() : tombNode.getPrev();
+                }
+                for (int i = 0; i < sources.length; ++i) {
+                    if (inRange(i) && sources[i].keys[positions[i]] == best) {
+                        if (state == -1) state = sources[i].states[positions[i]];
+                        positions[i] += ascending ? 1 : -1;
+                    }
+                }
+                if (state != TOMBSTONE) {
+                    key = best;
+                    value = state == TRUE;
+                    return true;
+                }
+            }
+        }
+
+        private boolean inRange(int i) {
+            return positions[i] >= 0 && positions[i] < sources[i].keys.length;
+        }
+
+        private boolean before(int a, int b) {
+            return ascending ? a < b : a > b;
+        }
+
+        public int key() {
+            return key;
+        }
+
+        public boolean value() {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,12 @@
+/**
+ * interface PrefixXorTree
+ * <p>
+ * An IBSTree that keeps subtree xors and so answers prefixXor. WorkloadTrace replays recorded prefixXor calls
+ * only on trees that implement it.
+ */
+interface PrefixXorTree extends IBSTree {
+    /**
+     * the xor of the info of all items with keys smaller or equal to k, which must be in the tree
+     */
+    public boolean prefixXor(int k);
+}
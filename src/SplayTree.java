@@ -0,0 +1,399 @@
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * public class SplayTree
+ * <p>
+ * A splay tree with integer keys and boolean values. Accesses move the accessed node to the root,
+ * so frequently used keys stay near the top and a sequence of lookups costs about the entropy of the access
+ * distribution per lookup instead of log(size).
+ * <p>
+ * Splaying writes to every node on the path, so by default search only splays with probability 1/8, decided
+ * by a fresh random draw per call; hot keys still get pulled up quickly while most lookups are read-only.
+ * insert, delete and prefixXor always splay.
+ * <p>
+ * Randomized splaying keeps the splay tree bounds in expectation: m operations on a tree of at most n nodes
+ * take expected O(m * log(n) + splayEvery * n * log(n)) time, so expected O(log(n)) amortized per operation
+ * once m is at least splayEvery * n. A search at depth d that splays lowers the usual sum-of-log-sizes
+ * potential by at least d - 3 * log(n) - 1, so in expectation every search pays for its own walk with a
+ * 1/splayEvery share of that drop, and the potential is between 0 and n * log(n). A search pattern can't stay
+ * out of phase with the splays the way it could with a fixed period, since the draws are independent of it.
+ * <p>
+ * Like AVLTree, nodes are threaded in key order through next/prev and hold the xor of the values in their
+ * subtree, so min, max, successor, keysToArray and infoToArray need no tree walks and prefixXor is a splay.
+ * Children are plain null references (there are no virtual nodes).
+ */
+public class SplayTree implements PrefixXorTree {
+    /**
+     * The root of the tree
+     */
+    private SplayNode root;
+    /**
+     * The node with the highest key in the tree
+     */
+    private SplayNode max;
+    /**
+     * The node with the lowest key in the tree
+     */
+    private SplayNode min;
+    /**
+     * the amount of nodes in the tree
+     */
+    private int size;
+    /**
+     * search splays with probability 1 / splayEvery
+     */
+    private final int splayEvery;
+
+    /**
+     * constructs an empty tree whose search splays with probability 1/8
+     * time complexity: O(1)
+     */
+    public SplayTree() {
+        this(8);
+    }
+
+    /**
+     * constructs an empty tree whose search splays with probability 1 / splayEvery (1 for a classic splay tree)
+     * time complexity: O(1)
+     */
+    public SplayTree(int splayEvery) {
+        if (splayEvery <= 0) throw new IllegalArgumentException("splayEvery must be positive: " + splayEvery);
+        this.root = null;
+        this.size = 0;
+        this.splayEvery = splayEvery;
+    }
+
+    /**
+     * returns true if and only if the tree is empty
+     * time complexity: O(1)
+     */
+    public boolean empty() {
+        return size == 0;
+    }
+
+    /**
+     * returns the info of an item with key k if it exists in the tree, otherwise returns null.
+     * with probability 1 / splayEvery the last node visited is splayed to the root.
+     * time complexity: expected O(log(size)) amortized, see the class doc
+     */
+    public Boolean search(int k) {
+        SplayNode node = find(k);
+        if (node == null) return null;
+        if (splayEvery == 1 || ThreadLocalRandom.current().nextInt(splayEvery) == 0) splay(node);
+        return node.getKey() == k ? node.getValue() : null;
+    }
+
+    /**
+     * inserts an item with key k and info i to the tree and splays it to the root.
+     * returns the number of rotations done, or -1 if an item with key k already exists in the tree.
+     * time complexity: expected O(log(size)) amortized, see the class doc
+     */
+    public int insert(int k, boolean i) {
+        SplayNode node = new SplayNode(k, i);
+        if (root == null) {
+            root = min = max = node;
+            ++size;
+            return 0;
+        }
+        SplayNode parent = find(k);
+        if (parent.getKey() == k) {
+            splay(parent);
+            return -1;
+        }
+        node.setParent(parent);
+        if (parent.getKey() < k) {
+            parent.setRight(node);
+            node.setPrev(parent);
+            node.setNext(parent.getNext());
+        } else {
+            parent.setLeft(node);
+            node.setNext(parent);
+            node.setPrev(parent.getPrev());
+        }
+        if (node.getNext() != null) node.getNext().setPrev(node);
+        else max = node;
+        if (node.getPrev() != null) node.getPrev().setNext(node);
+        else min = node;
+        ++size;
+        return splay(node);
+    }
+
+    /**
+     * deletes the item with key k from the tree, if it is there, by splaying it to the root and joining its
+     * subtrees.
+     * returns the number of rotations done, or -1 if an item with key k was not found in the tree.
+     * time complexity: expected O(log(size)) amortized, see the class doc
+     */
+    public int delete(int k) {
+        SplayNode node = find(k);
+        if (node == null) return -1;
+        int rotations = splay(node);
+        if (node.getKey() != k) return -1;
+
+        SplayNode next = node.getNext();
+        SplayNode prev = node.getPrev();
+        if (next != null) next.setPrev(prev);
+        else max = prev;
+        if (prev != null) prev.setNext(next);
+        else min = next;
+        --size;
+
+        SplayNode left = node.getLeft();
+        SplayNode right = node.getRight();
+        if (left == null) {
+            root = right;
+            if (right != null) right.setParent(null);
+            return rotations;
+        }
+        left.setParent(null);
+        root = left;
+        rotations += splay(prev);
+        prev.setRight(right);
+        if (right != null) right.setParent(prev);
+        prev.updateXor();
+        return rotations;
+    }
+
+    /**
+     * Returns the info of the item with the smallest key in the tree, or null if the tree is empty
+     * time complexity: O(1)
+     */
+    public Boolean min() {
+        return min == null ? null : min.getValue();
+    }
+
+    /**
+     * Returns the info of the item with the largest key in the tree, or null if the tree is empty
+     * time complexity: O(1)
+     */
+    public Boolean max() {
+        return max == null ? null : max.getValue();
+    }
+
+    /**
+     * Returns a sorted array which contains all keys in the tree, or an empty array if the tree is empty.
+     * time complexity: O(size)
+     */
+    public int[] keysToArray() {
+        int[] arr = new int[size];
+        SplayNode node = min;
+        for (int i = 0; i < size; ++i, node = node.getNext()) {
+            arr[i] = node.getKey();
+        }
+        return arr;
+    }
+
+    /**
+     * Returns an array which contains all info in the tree, sorted by their respective keys,
+     * or an empty array if the tree is empty.
+     * time complexity: O(size)
+     */
+    public boolean[] infoToArray() {
+        boolean[] arr = new boolean[size];
+        SplayNode node = min;
+        for (int i = 0; i < size; ++i, node = node.getNext()) {
+            arr[i] = node.getValue();
+        }
+        return arr;
+    }
+
+    /**
+     * Returns the number of nodes in the tree.
+     * time complexity: O(1)
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the root node, or null if the tree is empty
+     * time complexity: O(1)
+     */
+    public SplayNode getRoot() {
+        return root;
+    }
+
+    /**
+     * given a node in the tree, return its successor (or null if it doesn't exist)
+     * time complexity: O(1)
+     */
+    public SplayNode successor(SplayNode node) {
+        return node.getNext();
+    }
+
+    /**
+     * Given an argument k which is a key in the tree, calculate the xor of the values of nodes whose keys are
+     * smaller or equal to k, by splaying k to the root.
+     * precondition: this.search(k) != null
+     * time complexity: expected O(log(size)) amortized, see the class doc
+     */
+    public boolean prefixXor(int k) {
+        SplayNode node = find(k);
+        splay(node);
+        return xorOf(node.getLeft()) ^ node.getValue();
+    }
+
+    /**
+     * Prints the nodes in order, indented by their depth in the tree.
+     */
+    public void printTree() {
+        for (SplayNode node = min; node != null; node = node.getNext()) {
+            StringBuilder line = new StringBuilder();
+            for (SplayNode up = node.getParent(); up != null; up = up.getParent()) line.append("    ");
+            System.out.println(line.append(node));
+        }
+    }
+
+    /**
+     * Finds the node with key k, or the last node on the search path if there is none.
+     * time complexity: O(depth)
+     * @return the node, or null if the tree is empty
+     */
+    private SplayNode find(int k) {
+        SplayNode node = root;
+        SplayNode last = null;
+        while (node != null) {
+            last = node;
+            if (node.getKey() == k) return node;
+            node = node.getKey() > k ? node.getLeft() : node.getRight();
+        }
+        return last;
+    }
+
+    /**
+     * Moves node to the root with zig-zig and zig-zag steps.
+     * time complexity: O(depth)
+     * @return the number of rotations done
+     */
+    private int splay(SplayNode node) {
+        int rotations = 0;
+        while (node.getParent() != null) {
+            SplayNode parent = node.getParent();
+            SplayNode grand = parent.getParent();
+            if (grand != null) {
+                boolean zigZig = (grand.getLeft() == parent) == (parent.getLeft() == node);
+                rotateUp(zigZig ? parent : node);
+                ++rotations;
+            }
+            rotateUp(node);
+            ++rotations;
+        }
+        root = node;
+        return rotations;
+    }
+
+    /**
+     * Rotates node above its parent.
+     * time complexity: O(1)
+     */
+    private void rotateUp(SplayNode node) {
+        SplayNode parent = node.getParent();
+        SplayNode grand = parent.getParent();
+        if (parent.getLeft() == node) {
+            parent.setLeft(node.getRight());
+            if (node.getRight() != null) node.getRight().setParent(parent);
+            node.setRight(parent);
+        } else {
+            parent.setRight(node.getLeft());
+            if (node.getLeft() != null) node.getLeft().setParent(parent);
+            node.setLeft(parent);
+        }
+        parent.setParent(node);
+        node.setParent(grand);
+        if (grand != null) {
+            if (grand.getLeft() == parent) grand.setLeft(node);
+            else grand.setRight(node);
+        }
+        parent.updateXor();
+        node.updateXor();
+    }
+
+    private static boolean xorOf(SplayNode node) {
+        return node != null && node.getXorOfChildren();
+    }
+
+    /**
+     * public class SplayNode
+     * <p>
+     * A node of the splay tree.
+     * All methods here are of time complexity O(1)
+     */
+    public static class SplayNode {
+        private final int key;
+        private final boolean val;
+        private boolean xorOfChildren;
+        private SplayNode parent;
+        private SplayNode left;
+        private SplayNode right;
+        private SplayNode next;
+        private SplayNode prev;
+
+        public SplayNode(int key, boolean val) {
+            this.key = key;
+            this.val = val;
+            this.xorOfChildren = val;
+        }
+
+        public int getKey() {
+            return key;
+        }
+
+        public boolean getValue() {
+            return val;
+        }
+
+        public SplayNode getLeft() {
+            return left;
+        }
+
+        public void setLeft(SplayNode node) {
+            this.left = node;
+        }
+
+        public SplayNode getRight() {
+            return right;
+        }
+
+        public void setRight(SplayNode node) {
+            this.right = node;
+        }
+
+        public SplayNode getParent() {
+            return parent;
+        }
+
+        public void setParent(SplayNode node) {
+            this.parent = node;
+        }
+
+        public SplayNode getNext() {
+            return next;
+        }
+
+        public void setNext(SplayNode next) {
+            this.next = next;
+        }
+
+        public SplayNode getPrev() {
+            return prev;
+        }
+
+        public void setPrev(SplayNode prev) {
+            this.prev = prev;
+        }
+
+        // the xor of the values in this subtree
+        public boolean getXorOfChildren() {
+            return xorOfChildren;
+        }
+
+        public void updateXor() {
+            this.xorOfChildren = val ^ xorOf(left) ^ xorOf(right);
+        }
+
+        @Override
+        public String toString() {
+            return "(" + key + ")";
+        }
+    }
+}
@@ -0,0 +1,205 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * final class TreeRenderer
+ * <p>
+ * Writes binary trees to an Appendable as indented text, as a Graphviz DOT digraph or as compact JSON.
+ * Deleted nodes that still hold their place in the tree (the tombstones of a lazy delete) are written
+ * with a mark, since leaving them out would tear the tree apart.
+ * Every writer walks the tree with an explicit stack, so deep trees can't overflow the call stack, and writes
+ * each line as soon as it is known, so the work is linear in the size of the output.
+ * <p>
+ * The text form puts every node on its own line under its parent:
+ * <pre>
+ * (50)
+ * ├── L (30)
+ * │   └── R (40)
+ * └── R (70, deleted) …
+ * </pre>
+ * a trailing "…" marks a node whose children were cut off by the depth limit.
+ */
+final class TreeRenderer {
+    /**
+     * the marker for elided nodes
+     */
+    static final String ELLIPSIS = "…";
+    /**
+     * where a node of the text form hangs: a left child is the last child of its parent unless there's a right one
+     */
+    private static final byte ROOT = 0;
+    private static final byte LEFT = 1;
+    private static final byte LAST_LEFT = 2;
+    private static final byte LAST_RIGHT = 3;
+
+    /**
+     * How the renderer reads the nodes of a tree. absent children are reported as null.
+     */
+    interface Shape<N> {
+        N left(N node);
+
+        N right(N node);
+
+        int key(N node);
+
+        boolean value(N node);
+
+        /**
+         * whether the node is a tombstone, kept in the tree for its children but no longer holding an item
+         */
+        boolean deleted(N node);
+    }
+
+    private TreeRenderer() {
+    }
+
+    /**
+     * Writes the tree under root as indented text, one node per line.
+     * nodes deeper than maxDepth (the root is at depth 0) are elided, and after maxNodes nodes the output ends
+     * with a line saying it was truncated.
+     * time complexity: O(output)
+     */
+    static <N> void render(Shape<N> shape, N root, Appendable out, int maxDepth, int maxNodes) throws IOException {
+        if (root == null) {
+            out.append("(empty)\n");
+            return;
+        }
+        Object[] stack = new Object[16];
+        int[] prefixLengths = new int[16];
+        byte[] kinds = new byte[16];
+        int top = 0;
+        stack[top] = root;
+        kinds[top++] = ROOT;
+        StringBuilder prefix = new StringBuilder();
+        int written = 0;
+        while (top > 0) {
+            --top;
+            @SuppressWarnings("unchecked")
+            N node = (N) stack[top];
+            stack[top] = null;
+            prefix.setLength(prefixLengths[top]);
+            int kind = kinds[top];
+            if (written == maxNodes) {
+                out.append(ELLIPSIS).append(" truncated after ").append(String.valueOf(maxNodes)).append(" nodes\n");
+                return;
+            }
+            ++written;
+            int depth = kind == ROOT ? 0 : prefix.length() / 4 + 1;
+            boolean last = kind != LEFT;
+            out.append(prefix);
+            if (kind != ROOT) {
+                out.append(last ? "└── " : "├── ").append(kind == LAST_RIGHT ? "R " : "L ");
+                prefix.append(last ? "    " : "│   ");
+            }
+            out.append('(').append(String.valueOf(shape.key(node))).append(shape.deleted(node) ? ", deleted)" : ")");
+            N left = shape.left(node);
+            N right = shape.right(node);
+            if ((left != null || right != null) && depth >= maxDepth) {
+                out.append(' ').append(ELLIPSIS).append('\n');
+                continue;
+            }
+            out.append('\n');
+            if (top + 2 > stack.length) {
+                stack = Arrays.copyOf(stack, 2 * stack.length);
+                prefixLengths = Arrays.copyOf(prefixLengths, 2 * prefixLengths.length);
+                kinds = Arrays.copyOf(kinds, 2 * kinds.length);
+            }
+            // pushed right first, so the left child is written first
+            if (right != null) {
+                stack[top] = right;
+                prefixLengths[top] = prefix.length();
+                kinds[top++] = LAST_RIGHT;
+            }
+            if (left != null) {
+                stack[top] = left;
+                prefixLengths[top] = prefix.length();
+                kinds[top++] = right == null ? LAST_LEFT : LEFT;
+            }
+        }
+    }
+
+    /**
+     * Writes the tree under root as a Graphviz digraph, with one vertex per node labeled by its key and info,
+     * and edges labeled L and R. deleted nodes are dashed and gray.
+     * time complexity: O(size)
+     */
+    static <N> void writeDot(Shape<N> shape, N root, Appendable out) throws IOException {
+        out.append("digraph tree {\n  node [shape=circle];\n");
+        Object[] stack = new Object[16];
+        int top = 0;
+        if (root != null) stack[top++] = root;
+        while (top > 0) {
+            @SuppressWarnings("unchecked")
+            N node = (N) stack[--top];
+            stack[top] = null;
+            int key = shape.key(node);
+            out.append("  n").append(String.valueOf(key)).append(" [label=\"").append(String.valueOf(key))
+                    .append(shape.value(node) ? "\\nT\"" : "\\nF\"")
+                    .append(shape.deleted(node) ? ", style=dashed, color=gray];\n" : "];\n");
+            if (top + 2 > stack.length) stack = Arrays.copyOf(stack, 2 * stack.length);
+            N left = shape.left(node);
+            N right = shape.right(node);
+            if (left != null) {
+                dotEdge(out, key, shape.key(left), "L");
+                stack[top++] = left;
+            }
+            if (right != null) {
+                dotEdge(out, key, shape.key(right), "R");
+                stack[top++] = right;
+            }
+        }
+        out.append("}\n");
+    }
+
+    private static void dotEdge(Appendable out, int from, int to, String label) throws IOException {
+        out.append("  n").append(String.valueOf(from)).append(" -> n").append(String.valueOf(to))
+                .append(" [label=\"").append(label).append("\"];\n");
+    }
+
+    /**
+     * Writes the tree under root as JSON, each node as {"k":key,"v":info,"l":left,"r":right} with null for
+     * absent children, and null for an empty tree. a deleted node also has "d":true after "v".
+     * time complexity: O(size)
+     */
+    static <N> void writeJson(Shape<N> shape, N root, Appendable out) throws IOException {
+        Object[] stack = new Object[16];
+        byte[] stages = new byte[16]; // 0: nothing written yet, 1: the left child is done, 2: the right child too
+        int top = 0;
+        if (root == null) {
+            out.append("null");
+            return;
+        }
+        stack[top++] = root;
+        while (top > 0) {
+            @SuppressWarnings("unchecked")
+            N node = (N) stack[top - 1];
+            N child;
+            switch (stages[top - 1]++) {
+                case 0:
+                    out.append("{\"k\":").append(String.valueOf(shape.key(node)))
+                            .append(shape.value(node) ? ",\"v\":true" : ",\"v\":false")
+                            .append(shape.deleted(node) ? ",\"d\":true,\"l\":" : ",\"l\":");
+                    child = shape.left(node);
+                    break;
+                case 1:
+                    out.append(",\"r\":");
+                    child = shape.right(node);
+                    break;
+                default:
+                    out.append('}');
+                    stack[--top] = null;
+                    continue;
+            }
+            if (child == null) {
+                out.append("null");
+                continue;
+            }
+            if (top == stack.length) {
+                stack = Arrays.copyOf(stack, 2 * stack.length);
+                stages = Arrays.copyOf(stages, 2 * stages.length);
+            }
+            stack[top] = child;
+            stages[top++] = 0;
+        }
+    }
+}
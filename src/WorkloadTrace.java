@@ -0,0 +1,438 @@
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+
+import static java.lang.System.nanoTime;
+
+/**
+ * public class WorkloadTrace
+ * <p>
+ * A recorded stream of tree operations that can be replayed against any IBSTree. prefixXor and deleteRange are
+ * not part of IBSTree; replay runs prefixXor on trees that implement PrefixXorTree, deleteRange on AVLTrees, and
+ * skips them on the others.
+ * <p>
+ * Traces are written by a Writer, or by a Recorder that wraps a tree and logs every call made to it.
+ * The binary format is a magic number and a version, followed by one entry per operation: an opcode byte
+ * (insert carries its info in the opcode), the key as a zigzag varint of its difference from the previous key,
+ * and for deleteRange the width hi - lo as another varint. Sequential and local traces take about two bytes
+ * per operation.
+ * <p>
+ * replay decodes nothing while it is timing: the trace is decoded once by read, and replay only measures the
+ * calls into the tree, reporting throughput, latency percentiles and allocated bytes.
+ */
+public class WorkloadTrace {
+    public static final byte INSERT_FALSE = 0;
+    public static final byte INSERT_TRUE = 1;
+    public static final byte SEARCH = 2;
+    public static final byte DELETE = 3;
+    public static final byte PREFIX_XOR = 4;
+    public static final byte DELETE_RANGE = 5;
+    private static final int MAGIC = 0x41564C54; // "AVLT"
+    private static final byte VERSION = 1;
+
+    private final byte[] ops;
+    private final int[] keys;
+    /**
+     * the upper bound of each deleteRange, 0 for the other operations
+     */
+    private final int[] his;
+    private final int size;
+
+    private WorkloadTrace(byte[] ops, int[] keys, int[] his, int size) {
+        this.ops = ops;
+        this.keys = keys;
+        this.his = his;
+        this.size = size;
+    }
+
+    /**
+     * Decodes a whole trace from in.
+     * time complexity: O(operations)
+     * @throws IOException if in fails or doesn't hold a trace
+     */
+    public static WorkloadTrace read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in, 1 << 16));
+        if (data.readInt() != MAGIC) throw new IOException("not a workload trace");
+        byte version = data.readByte();
+        if (version != VERSION) throw new IOException("unsupported trace version " + version);
+        byte[] ops = new byte[1024];
+        int[] keys = new int[1024];
+        int[] his = new int[1024];
+        int size = 0;
+        int key = 0;
+        int op;
+        while ((op = data.read()) >= 0) {
+            if (op > DELETE_RANGE) throw new IOException("bad opcode " + op + " at operation " + size);
+            if (size == ops.length) {
+                ops = Arrays.copyOf(ops, 2 * size);
+                keys = Arrays.copyOf(keys, 2 * size);
+                his = Arrays.copyOf(his, 2 * size);
+            }
+            key += unzigzag(readVarint(data));
+            ops[size] = (byte) op;
+            keys[size] = key;
+            if (op == DELETE_RANGE) his[size] = key + readVarint(data);
+            ++size;
+        }
+        return new WorkloadTrace(ops, keys, his, size);
+    }
+
+    private static int readVarint(DataInputStream data) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = data.read();
+            if (b < 0) throw new EOFException("trace ends inside an operation");
+            value |= (b & 0x7F) << shift;
+            if (b < 0x80) return value;
+        }
+        throw new IOException("varint longer than 5 bytes");
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Returns the number of operations in the trace.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Feeds every operation of the trace to tree, timing each one.
+     * prefixXor is replayed only on a PrefixXorTree, and deleteRange only on an AVLTree (see supportsDeleteRange).
+     * on other trees they are skipped and counted, and left out of the throughput, after which the tree's contents may differ
+     * from the recorded ones.
+     * time complexity: O(operations) calls into tree
+     */
+    public Result replay(IBSTree tree) {
+        Histogram latencies = new Histogram();
+        long checksum = 0;
+        int unsupported = 0;
+        boolean hasPrefixXor = tree instanceof PrefixXorTree;
+        boolean hasDeleteRange = supportsDeleteRange(tree);
+        long allocatedBefore = allocatedBytes();
+        long begin = nanoTime();
+        for (int i = 0; i < size; ++i) {
+            int key = keys[i];
+            if (ops[i] == PREFIX_XOR && !hasPrefixXor || ops[i] == DELETE_RANGE && !hasDeleteRange) {
+                ++unsupported; // skipped before the timing starts, and left out of the throughput
+                continue;
+            }
+            long start = nanoTime();
+            switch (ops[i]) {
+                case INSERT_FALSE:
+                    checksum += tree.insert(key, false);
+                    break;
+                case INSERT_TRUE:
+                    checksum += tree.insert(key, true);
+                    break;
+                case SEARCH:
+                    Boolean value = tree.search(key);
+                    checksum += value == null ? 0 : value ? 1 : 2;
+                    break;
+                case DELETE:
+                    checksum += tree.delete(key);
+                    break;
+                case PREFIX_XOR:
+                    checksum += ((PrefixXorTree) tree).prefixXor(key) ? 1 : 0;
+                    break;
+                default:
+                    checksum += deleteRange(tree, key, his[i]);
+            }
+            latencies.record(nanoTime() - start);
+        }
+        long elapsed = nanoTime() - begin;
+        long allocatedAfter = allocatedBytes();
+        long allocated = allocatedBefore < 0 ? -1 : allocatedAfter - allocatedBefore;
+        return new Result(size - unsupported, unsupported, elapsed, latencies, allocated, checksum);
+    }
+
+    /**
+     * AVLTree is the only tree that deletes a range in one operation, so it and a recorder of one are the trees
+     * deleteRange is replayed on
+     */
+    private static boolean supportsDeleteRange(IBSTree tree) {
+        return tree instanceof AVLTree || tree instanceof AVLTreeRecorder;
+    }
+
+    private static int deleteRange(IBSTree tree, int lo, int hi) {
+        return tree instanceof AVLTree ? ((AVLTree) tree).deleteRange(lo, hi)
+                : ((AVLTreeRecorder) tree).deleteRange(lo, hi);
+    }
+
+    /**
+     * the bytes allocated by this thread so far, or -1 if the JVM can't tell
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) return -1;
+        return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * public static class Result
+     * <p>
+     * What one replay measured.
+     */
+    public static class Result {
+        // the operations replayed, without the skipped ones
+        private final int operations;
+        private final int unsupported;
+        private final long elapsedNanos;
+        private final Histogram latencies;
+        private final long allocatedBytes;
+        private final long checksum;
+
+        private Result(int operations, int unsupported, long elapsedNanos, Histogram latencies, long allocatedBytes,
+                       long checksum) {
+            this.operations = operations;
+            this.unsupported = unsupported;
+            this.elapsedNanos = elapsedNanos;
+            this.latencies = latencies;
+            this.allocatedBytes = allocatedBytes;
+            this.checksum = checksum;
+        }
+
+        // operations replayed per second, skipped ones not counted
+        public double throughput() {
+            return operations / (elapsedNanos / 1e9);
+        }
+
+        // the latency in nanoseconds that the fraction p of the timed operations didn't exceed
+        public long latencyPercentile(double p) {
+            return latencies.percentile(p);
+        }
+
+        public long maxLatency() {
+            return latencies.max();
+        }
+
+        // the bytes allocated during the replay per operation, or -1 if the JVM can't tell
+        public double allocatedBytesPerOperation() {
+            return allocatedBytes < 0 ? -1 : allocatedBytes / (double) operations;
+        }
+
+        public int unsupported() {
+            return unsupported;
+        }
+
+        // a sum of the results of all operations, equal for trees that gave the same answers
+        public long checksum() {
+            return checksum;
+        }
+    }
+
+    /**
+     * static class Histogram
+     * <p>
+     * A log-linear latency histogram in the style of HdrHistogram: every power of two is split into
+     * 2^(SUB_BITS - 1) equal buckets, so a recorded value is off by less than 1 / 2^(SUB_BITS - 1).
+     * record is O(1) and doesn't allocate.
+     */
+    static class Histogram {
+        private static final int SUB_BITS = 7;
+        private static final int HALF = 1 << (SUB_BITS - 1);
+        private final long[] counts = new long[(64 - SUB_BITS + 2) * HALF];
+        private long total;
+        private long max;
+
+        void record(long value) {
+            if (value < 0) value = 0;
+            ++counts[index(value)];
+            ++total;
+            if (value > max) max = value;
+        }
+
+        private static int index(long value) {
+            int shift = Math.max(0, 64 - Long.numberOfLeadingZeros(value) - SUB_BITS);
+            return shift * HALF + (int) (value >>> shift);
+        }
+
+        // the largest value that falls in the bucket of index
+        private static long highestValue(int index) {
+            if (index < 2 * HALF) return index;
+            int shift = index / HALF - 1;
+            long sub = index - (long) shift * HALF;
+            return ((sub + 1) << shift) - 1;
+        }
+
+        long percentile(double p) {
+            if (total == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(p * total));
+            long seen = 0;
+            for (int i = 0; i < counts.length; ++i) {
+                seen += counts[i];
+                if (seen >= rank) return Math.min(highestValue(i), max);
+            }
+            return max;
+        }
+
+        long max() {
+            return max;
+        }
+    }
+
+    /**
+     * public static class Writer
+     * <p>
+     * Encodes operations into a trace. The stream is written in 64KB chunks, close flushes and closes it.
+     */
+    public static class Writer implements Closeable {
+        private final OutputStream out;
+        private final byte[] buffer = new byte[1 << 16];
+        private int position;
+        private int previousKey;
+
+        public Writer(OutputStream out) throws IOException {
+            this.out = out;
+            putInt(MAGIC);
+            buffer[position++] = VERSION;
+        }
+
+        public void insert(int k, boolean i) throws IOException {
+            op(i ? INSERT_TRUE : INSERT_FALSE, k);
+        }
+
+        public void search(int k) throws IOException {
+            op(SEARCH, k);
+        }
+
+        public void delete(int k) throws IOException {
+            op(DELETE, k);
+        }
+
+        public void prefixXor(int k) throws IOException {
+            op(PREFIX_XOR, k);
+        }
+
+        public void deleteRange(int lo, int hi) throws IOException {
+            op(DELETE_RANGE, lo);
+            putVarint(hi - lo);
+        }
+
+        private void op(byte op, int key) throws IOException {
+            if (position + 16 > buffer.length) flushBuffer();
+            buffer[position++] = op;
+            putVarint(zigzag(key - previousKey));
+            previousKey = key;
+        }
+
+        private void putVarint(int value) {
+            while ((value & ~0x7F) != 0) {
+                buffer[position++] = (byte) (value | 0x80);
+                value >>>= 7;
+            }
+            buffer[position++] = (byte) value;
+        }
+
+        private void putInt(int value) {
+            for (int shift = 24; shift >= 0; shift -= 8) buffer[position++] = (byte) (value >>> shift);
+        }
+
+        private void flushBuffer() throws IOException {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            flushBuffer();
+            out.close();
+        }
+    }
+
+    /**
+     * public static class Recorder
+     * <p>
+     * Wraps a tree and writes every operation called on it to a Writer before passing it on.
+     * the tree's answers are returned unchanged. AVLTreeRecorder also records prefixXor and deleteRange. IOExceptions of the writer are thrown as UncheckedIOException.
+     */
+    public static class Recorder implements IBSTree {
+        private final IBSTree tree;
+        private final Writer writer;
+
+        public Recorder(IBSTree tree, Writer writer) {
+            this.tree = tree;
+            this.writer = writer;
+        }
+
+        public int insert(int k, boolean i) {
+            try {
+                writer.insert(k, i);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return tree.insert(k, i);
+        }
+
+        public Boolean search(int k) {
+            try {
+                writer.search(k);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return tree.search(k);
+        }
+
+        public int delete(int k) {
+            try {
+                writer.delete(k);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return tree.delete(k);
+        }
+
+        public void printTree() {
+            tree.printTree();
+        }
+    }
+
+    /**
+     * public static class AVLTreeRecorder
+     * <p>
+     * A Recorder of an AVLTree, which also records prefixXor and deleteRange.
+     */
+    public static class AVLTreeRecorder extends Recorder implements PrefixXorTree {
+        private final AVLTree tree;
+        private final Writer writer;
+
+        public AVLTreeRecorder(AVLTree tree, Writer writer) {
+            super(tree, writer);
+            this.tree = tree;
+            this.writer = writer;
+        }
+
+        public boolean prefixXor(int k) {
+            try {
+                writer.prefixXor(k);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return tree.prefixXor(k);
+        }
+
+        public int deleteRange(int lo, int hi) {
+            try {
+                writer.deleteRange(lo, hi);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return tree.deleteRange(lo, hi);
+        }
+    }
+}